@@ -33,16 +33,13 @@ import com.whispertflite.asr.Whisper;
 import com.whispertflite.asr.WhisperResult;
 import com.whispertflite.utils.HapticFeedback;
 import com.whispertflite.utils.InputLang;
+import com.whispertflite.utils.ModelCatalog;
 
 import java.io.File;
 
 public class MainActivity extends AppCompatActivity {
     private static final String TAG = "MainActivity";
 
-    // single large model
-    public static final String LARGE_MODEL_NAME = "whisper-large-v3.tflite";
-    public static final String VOCAB_FILE       = "filters_vocab_multilingual.bin";
-
     private ProgressBar processingBar;
     private TextView tvStatus, tvResult;
     private Spinner spinnerLang;
@@ -50,12 +47,14 @@ public class MainActivity extends AppCompatActivity {
     private Recorder mRecorder;
     private Whisper mWhisper;
     private File sdcard;
+    private ModelCatalog.ModelInfo model;
     private File modelFile;
     private SharedPreferences sp;
     private boolean isRecording = false;
     private CountDownTimer countDownTimer;
     private int langToken;
-    private CheckBox cbTranslate, cbSimpleChinese, cbTTS;
+    private CheckBox cbTranslate, cbSimpleChinese, cbTTS, cbContinuous;
+    private volatile boolean isContinuous = false;  // of the current recording
 
     @SuppressLint("ClickableViewAccessibility")
     @Override protected void onCreate(Bundle b) {
@@ -64,8 +63,8 @@ public class MainActivity extends AppCompatActivity {
 
         sp = PreferenceManager.getDefaultSharedPreferences(this);
         sdcard = getExternalFilesDir(null);
-        modelFile = new File(sdcard,
-                sp.getString("modelName", LARGE_MODEL_NAME));
+        model = ModelCatalog.getSelectedModel(this, "modelName");
+        modelFile = model.getFile(this);
         if (!modelFile.exists()) {
             startActivity(new Intent(this, DownloadActivity.class));
             finish(); return;
@@ -79,6 +78,10 @@ public class MainActivity extends AppCompatActivity {
         cbTranslate   = findViewById(R.id.mode_translate);
         cbSimpleChinese = findViewById(R.id.mode_simple_chinese);
         cbTTS         = findViewById(R.id.mode_tts);
+        cbContinuous  = findViewById(R.id.mode_continuous);
+        cbContinuous.setChecked(sp.getBoolean("continuousDictation", false));
+        cbContinuous.setOnCheckedChangeListener((b2, checked) ->
+                sp.edit().putBoolean("continuousDictation", checked).apply());
 
         // Copy to clipboard
         fabCopy.setOnClickListener(v -> {
@@ -94,14 +97,12 @@ public class MainActivity extends AppCompatActivity {
                 android.R.layout.simple_spinner_item, langs));
         spinnerLang.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
             @Override public void onItemSelected(AdapterView<?> p, View v, int pos, long id) {
-                langToken = InputLang.getIdForLanguage(
-                        InputLang.getLangList(), langs[pos]);
+                langToken = InputLang.getIdForLanguage(langs[pos]);
                 sp.edit().putString("language", langs[pos]).apply();
             }
             @Override public void onNothingSelected(AdapterView<?> p) {}
         });
-        langToken = InputLang.getIdForLanguage(
-                InputLang.getLangList(), sp.getString("language","auto"));
+        langToken = InputLang.getIdForLanguage(sp.getString("language","auto"));
 
         // Recorder & Whisper
         mRecorder = new Recorder(this);
@@ -113,9 +114,12 @@ public class MainActivity extends AppCompatActivity {
                 case Recorder.MSG_RECORDING_DONE:
                     HapticFeedback.vibrate(this);
                     runOnUiThread(() -> processingBar.setIndeterminate(true));
-                    startProcessing(cbTranslate.isChecked()
-                            ? Whisper.ACTION_TRANSLATE
-                            : Whisper.ACTION_TRANSCRIBE);
+                    // Windows of a continuous recording are already queued
+                    if (!isContinuous) {
+                        startProcessing(cbTranslate.isChecked()
+                                ? Whisper.ACTION_TRANSLATE
+                                : Whisper.ACTION_TRANSCRIBE);
+                    }
                     break;
                 case Recorder.MSG_RECORDING_ERROR:
                     if (countDownTimer!=null) countDownTimer.cancel();
@@ -125,11 +129,24 @@ public class MainActivity extends AppCompatActivity {
         });
 
         initModel();
+        mRecorder.setChunkListener((pcm, length, overlapBytes, last) ->
+                mWhisper.addChunk(pcm, length, overlapBytes, last));
 
         // Toggle capture
         findViewById(R.id.btnRecord).setOnClickListener(v -> {
             if (!isRecording) {
                 isRecording = true;
+                isContinuous = cbContinuous.isChecked();
+                mRecorder.setContinuous(isContinuous);
+                if (isContinuous) {
+                    // Windows are transcribed while recording goes on
+                    mWhisper.setAction(cbTranslate.isChecked()
+                            ? Whisper.ACTION_TRANSLATE
+                            : Whisper.ACTION_TRANSCRIBE);
+                    mWhisper.setLanguage(langToken);
+                    mRecorder.start();
+                    return;
+                }
                 mRecorder.start();
                 countDownTimer = new CountDownTimer(30000,1000){
                     @Override public void onTick(long ms){
@@ -148,7 +165,7 @@ public class MainActivity extends AppCompatActivity {
     private void initModel() {
         mWhisper = new Whisper(this);
         mWhisper.loadModel(modelFile,
-                new File(sdcard, VOCAB_FILE), true);
+                new File(sdcard, model.getVocabFileName()), model.multilingual);
         mWhisper.setListener(new Whisper.WhisperListener(){
             @Override public void onUpdateReceived(String u){}
             @Override public void onResultReceived(WhisperResult r){
@@ -156,7 +173,11 @@ public class MainActivity extends AppCompatActivity {
                 String out = r.getResult().trim();
                 if (r.getLanguage().equals("zh") && cbSimpleChinese.isChecked())
                     out = ZhConverterUtil.toSimple(out);
-                tvResult.append(out);
+                // Keep the space between the windows of a continuous dictation
+                if (isContinuous && r.getResult().startsWith(" ") && !out.isEmpty())
+                    out = " " + out;
+                String text = out;
+                runOnUiThread(() -> tvResult.append(text));
             }
         });
     }
@@ -170,4 +191,13 @@ public class MainActivity extends AppCompatActivity {
         mWhisper.setLanguage(langToken);
         mWhisper.start();
     }
+
+    // Each recreation, rotation included, loads through a new Whisper, release this one's
+    // model reference so the registry can unload the model once it is idle
+    @Override protected void onDestroy() {
+        if (countDownTimer!=null) countDownTimer.cancel();
+        if (mRecorder!=null && mRecorder.isInProgress()) mRecorder.stop();
+        if (mWhisper!=null) mWhisper.unloadModel();
+        super.onDestroy();
+    }
 }
@@ -0,0 +1,16 @@
+package com.whispertflite;
+
+import android.app.Application;
+
+import com.whispertflite.engine.ModelRegistry;
+import com.whispertflite.engine.WhisperEngineJava;
+
+// Runs before any activity or service of the process, so every Whisper finds the engine
+// factory of the app's TFLite engine registered
+public class WhisperApplication extends Application {
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        ModelRegistry.setEngineFactory(WhisperEngineJava::new);
+    }
+}
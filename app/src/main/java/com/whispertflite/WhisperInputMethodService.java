@@ -8,23 +8,25 @@ import android.widget.ImageButton;
 import android.widget.ProgressBar;
 import android.widget.TextView;
 import android.content.Intent;
+
+import androidx.preference.PreferenceManager;
+
 import com.whispertflite.asr.Recorder;
 import com.whispertflite.asr.Whisper;
 import com.whispertflite.asr.WhisperResult;
 import com.whispertflite.utils.HapticFeedback;
+import com.whispertflite.utils.ModelCatalog;
 
 import java.io.File;
 
 public class WhisperInputMethodService extends InputMethodService {
-    private static final String LARGE_MODEL_NAME = "whisper-large-v3.tflite";
-    private static final String VOCAB_FILE       = "filters_vocab_multilingual.bin";
-
     private ImageButton btnRecord;
     private Recorder mRecorder;
     private Whisper mWhisper;
     private ProgressBar processingBar;
     private TextView tvStatus;
     private boolean isRecording = false;
+    private volatile boolean isContinuous = false;  // of the current recording
     private CountDownTimer countDownTimer;
     private Handler handler = new Handler();
 
@@ -35,10 +37,13 @@ public class WhisperInputMethodService extends InputMethodService {
         processingBar = v.findViewById(R.id.processing_bar);
         tvStatus      = v.findViewById(R.id.tv_status);
 
-        File model = new File(getExternalFilesDir(null),
-                getSharedPreferences("default", MODE_PRIVATE)
-                        .getString("modelName", LARGE_MODEL_NAME));
-        if (!model.exists()) {
+        // The input view is recreated e.g. on rotation, release the previous model reference
+        // and recording first, the model itself stays cached in the registry
+        releaseWhisper();
+
+        ModelCatalog.ModelInfo model = ModelCatalog.getSelectedModel(this, "modelName");
+        File modelFile = model.getFile(this);
+        if (!modelFile.exists()) {
             switchToPreviousInputMethod();
             startActivity(new Intent(this, DownloadActivity.class)
                     .addFlags(Intent.FLAG_ACTIVITY_NEW_TASK));
@@ -50,14 +55,27 @@ public class WhisperInputMethodService extends InputMethodService {
             if (Recorder.MSG_RECORDING_DONE.equals(msg)) {
                 handler.post(() -> {
                     HapticFeedback.vibrate(this);
-                    startTranscription();
+                    // Windows of a continuous recording are already queued
+                    if (!isContinuous) startTranscription();
                 });
             }
         });
+        mRecorder.setChunkListener((pcm, length, overlapBytes, last) ->
+                mWhisper.addChunk(pcm, length, overlapBytes, last));
 
         btnRecord.setOnClickListener(ok -> {
             if (!isRecording) {
                 isRecording = true;
+                isContinuous = PreferenceManager.getDefaultSharedPreferences(this)
+                        .getBoolean("continuousDictation", false);
+                mRecorder.setContinuous(isContinuous);
+                if (isContinuous) {
+                    // Text is committed window by window until stopped
+                    mWhisper.setAction(Whisper.ACTION_TRANSCRIBE);
+                    mRecorder.start();
+                    processingBar.setIndeterminate(true);
+                    return;
+                }
                 mRecorder.start();
                 processingBar.setProgress(100);
                 countDownTimer = new CountDownTimer(30000,1000){
@@ -74,15 +92,15 @@ public class WhisperInputMethodService extends InputMethodService {
         });
 
         mWhisper = new Whisper(this);
-        mWhisper.loadModel(model,
-                new File(getExternalFilesDir(null), VOCAB_FILE), true);
+        mWhisper.loadModel(modelFile,
+                new File(getExternalFilesDir(null), model.getVocabFileName()), model.multilingual);
         mWhisper.setListener(new Whisper.WhisperListener(){
             @Override public void onUpdateReceived(String u){}
             @Override public void onResultReceived(WhisperResult r){
                 handler.post(() -> processingBar.setIndeterminate(false));
                 String out = r.getResult().trim();
                 getCurrentInputConnection().commitText(out + " ",1);
-                if (isRecording) {
+                if (isRecording && !isContinuous) {
                     isRecording = false;
                     switchToPreviousInputMethod();
                 }
@@ -100,9 +118,17 @@ public class WhisperInputMethodService extends InputMethodService {
         mWhisper.start();
     }
 
-    @Override public void onDestroy() {
+    private void releaseWhisper() {
+        if (countDownTimer!=null) countDownTimer.cancel();
         if (mWhisper!=null) mWhisper.unloadModel();
         if (mRecorder!=null && mRecorder.isInProgress()) mRecorder.stop();
+        mWhisper = null;
+        mRecorder = null;
+        isRecording = false;
+    }
+
+    @Override public void onDestroy() {
+        releaseWhisper();
         super.onDestroy();
     }
 }
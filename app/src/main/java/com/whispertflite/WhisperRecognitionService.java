@@ -3,7 +3,6 @@ package com.whispertflite;
 import android.content.Intent;
 import android.os.Bundle;
 import android.os.RemoteException;
-import android.preference.PreferenceManager;
 import android.speech.RecognitionService;
 import android.speech.RecognizerIntent;
 import android.speech.SpeechRecognizer;
@@ -14,14 +13,13 @@ import com.whispertflite.asr.Recorder;
 import com.whispertflite.asr.Whisper;
 import com.whispertflite.asr.WhisperResult;
 import com.whispertflite.utils.InputLang;
+import com.whispertflite.utils.ModelCatalog;
 
 import java.io.File;
 import java.util.ArrayList;
 
 public class WhisperRecognitionService extends RecognitionService {
     private static final String TAG = "WhisperSvc";
-    private static final String LARGE_MODEL_NAME = "whisper-large-v3.tflite";
-    private static final String VOCAB_FILE       = "filters_vocab_multilingual.bin";
 
     private Callback callbackRef;
     private Whisper mWhisper;
@@ -30,12 +28,8 @@ public class WhisperRecognitionService extends RecognitionService {
     @Override
     protected void onStartListening(Intent intent, Callback callback) {
         callbackRef = callback;
-        File sd = getExternalFilesDir(null);
-        File model = new File(sd,
-                PreferenceManager.getDefaultSharedPreferences(this)
-                        .getString("recognitionServiceModelName", LARGE_MODEL_NAME)
-        );
-        if (!model.exists()) {
+        ModelCatalog.ModelInfo model = ModelCatalog.getSelectedModel(this, "recognitionServiceModelName");
+        if (!model.getFile(this).exists()) {
             try {
                 callback.error(SpeechRecognizer.ERROR_CLIENT);
             } catch (RemoteException e) {
@@ -45,19 +39,18 @@ public class WhisperRecognitionService extends RecognitionService {
         }
 
         int langToken = InputLang.getIdForLanguage(
-                InputLang.getLangList(),
-                intent.getStringExtra(RecognizerIntent.EXTRA_LANGUAGE)
-                        .split("[-_]")[0]
-        );
+                intent.getStringExtra(RecognizerIntent.EXTRA_LANGUAGE));
 
         initModel(model, langToken);
         startRecording();
     }
 
-    private void initModel(File modelFile, int langToken) {
+    private void initModel(ModelCatalog.ModelInfo model, int langToken) {
+        // The model of the previous session is still cached, release its reference
+        if (mWhisper != null) mWhisper.unloadModel();
         mWhisper = new Whisper(this);
-        mWhisper.loadModel(modelFile,
-                new File(getExternalFilesDir(null), VOCAB_FILE), true);
+        mWhisper.loadModel(model.getFile(this),
+                new File(getExternalFilesDir(null), model.getVocabFileName()), model.multilingual);
         mWhisper.setLanguage(langToken);
         mWhisper.setListener(new Whisper.WhisperListener() {
             @Override public void onUpdateReceived(String msg) {}
@@ -103,6 +96,7 @@ public class WhisperRecognitionService extends RecognitionService {
     @Override
     protected void onCancel(Callback callback) {
         if (mRecorder != null) mRecorder.stop();
+        if (mWhisper != null) mWhisper.stop();
     }
 
     @Override
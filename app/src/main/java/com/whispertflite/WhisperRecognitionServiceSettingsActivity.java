@@ -3,21 +3,32 @@ package com.whispertflite;
 
 import android.content.Intent;
 import android.os.Bundle;
+import android.util.Log;
 import android.view.MenuItem;
+import android.view.View;
+import android.widget.AdapterView;
 import android.widget.ArrayAdapter;
+import android.widget.Button;
 import android.widget.Spinner;
+import android.widget.TextView;
 
 import androidx.appcompat.app.ActionBar;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.preference.PreferenceManager;
 
+import com.whispertflite.engine.ThreadAutotuner;
 import com.whispertflite.utils.Downloader;
+import com.whispertflite.utils.ModelCatalog;
 
-import java.io.File;
-import java.util.Collections;
+import java.io.IOException;
+import java.util.List;
 
 public class WhisperRecognitionServiceSettingsActivity extends AppCompatActivity {
-    private static final String LARGE_MODEL_NAME = "whisper-large-v3.tflite";
+    private static final String TAG = "WhisperSettings";
+
+    private ModelCatalog.ModelInfo selectedModel;
+    private TextView tvThreadProfile;
+    private Button btnTuneThreads, btnResetThreads;
 
     @Override
     protected void onCreate(Bundle saved) {
@@ -33,14 +44,70 @@ public class WhisperRecognitionServiceSettingsActivity extends AppCompatActivity
             return;
         }
 
+        // Installed models, the catalog ones and custom files
+        ModelCatalog.ModelInfo selected = ModelCatalog.getSelectedModel(this, "recognitionServiceModelName");
+        selectedModel = selected;
+        List<ModelCatalog.ModelInfo> models = ModelCatalog.getInstalledModels(this);
+        if (!models.contains(selected)) models.add(0, selected);
+
         Spinner spnr = findViewById(R.id.spnrTfliteFiles);
-        File f = new File(getExternalFilesDir(null),
-                PreferenceManager.getDefaultSharedPreferences(this)
-                        .getString("recognitionServiceModelName", LARGE_MODEL_NAME));
         spnr.setAdapter(new ArrayAdapter<>(this,
-                android.R.layout.simple_spinner_item,
-                Collections.singletonList(f)));
-        spnr.setEnabled(false);
+                android.R.layout.simple_spinner_item, models));
+        spnr.setSelection(models.indexOf(selected));
+        spnr.setEnabled(models.size() > 1);
+        spnr.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
+            @Override public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
+                PreferenceManager.getDefaultSharedPreferences(WhisperRecognitionServiceSettingsActivity.this)
+                        .edit().putString("recognitionServiceModelName", models.get(position).fileName).apply();
+                selectedModel = models.get(position);
+                showThreadProfile();
+            }
+            @Override public void onNothingSelected(AdapterView<?> parent) {}
+        });
+
+        // Interpreter thread profile of the selected model, tuned again or reset on demand
+        tvThreadProfile = findViewById(R.id.tvThreadProfile);
+        btnTuneThreads = findViewById(R.id.btnTuneThreads);
+        btnResetThreads = findViewById(R.id.btnResetThreads);
+        btnTuneThreads.setOnClickListener(v -> {
+            String modelPath = selectedModel.getFile(this).getPath();
+            tvThreadProfile.setText(R.string.thread_profile_tuning);
+            btnTuneThreads.setEnabled(false);
+            btnResetThreads.setEnabled(false);
+            Thread thread = new Thread(() -> {
+                try {
+                    ThreadAutotuner.tune(getApplicationContext(), modelPath);
+                } catch (IOException e) {
+                    Log.e(TAG, "Thread tuning failed", e);
+                }
+                runOnUiThread(() -> {
+                    if (!isDestroyed()) showThreadProfile();
+                });
+            }, "ThreadAutotune");
+            thread.setPriority(Thread.MIN_PRIORITY);
+            thread.start();
+        });
+        btnResetThreads.setOnClickListener(v -> {
+            ThreadAutotuner.clearProfile(this, selectedModel.getFile(this).getPath());
+            showThreadProfile();
+        });
+        showThreadProfile();
+    }
+
+    private void showThreadProfile() {
+        String modelPath = selectedModel.getFile(this).getPath();
+        boolean tuning = ThreadAutotuner.isTuning(modelPath);
+        String table = ThreadAutotuner.getProfileTable(this, modelPath);
+        if (tuning) {
+            tvThreadProfile.setText(R.string.thread_profile_tuning);
+        } else if (table.isEmpty()) {
+            tvThreadProfile.setText(R.string.thread_profile_none);
+        } else {
+            // e.g. "2=9120,4=6310" -> "2 = 9120 ms, 4 = 6310 ms"
+            tvThreadProfile.setText(table.replace("=", " = ").replace(",", " ms, ") + " ms");
+        }
+        btnTuneThreads.setEnabled(!tuning);
+        btnResetThreads.setEnabled(!tuning && !table.isEmpty());
     }
 
     @Override
@@ -26,6 +26,7 @@ import com.whispertflite.asr.Whisper;
 import com.whispertflite.asr.WhisperResult;
 import com.whispertflite.utils.HapticFeedback;
 import com.whispertflite.utils.InputLang;
+import com.whispertflite.utils.ModelCatalog;
 
 import java.io.File;
 import java.util.ArrayList;
@@ -42,7 +43,7 @@ public class WhisperRecognizeActivity extends AppCompatActivity {
     private Recorder mRecorder;
     private Whisper mWhisper;
     private File sdcardDataFolder;
-    private File selectedTfliteFile;
+    private ModelCatalog.ModelInfo selectedModel;
     private SharedPreferences sp;
     private boolean modeAuto;
     private CountDownTimer countDownTimer;
@@ -53,11 +54,8 @@ public class WhisperRecognizeActivity extends AppCompatActivity {
         super.onCreate(savedInstanceState);
         sp = PreferenceManager.getDefaultSharedPreferences(this);
         sdcardDataFolder = getExternalFilesDir(null);
-        selectedTfliteFile = new File(
-                sdcardDataFolder,
-                sp.getString(MODEL_PREF_KEY, MainActivity.LARGE_MODEL_NAME)
-        );
-        if (!selectedTfliteFile.exists()) {
+        selectedModel = ModelCatalog.getSelectedModel(this, MODEL_PREF_KEY);
+        if (!selectedModel.getFile(this).exists()) {
             Intent intent = new Intent(this, DownloadActivity.class)
                     .addFlags(FLAG_ACTIVITY_NEW_TASK);
             startActivity(intent);
@@ -67,19 +65,15 @@ public class WhisperRecognizeActivity extends AppCompatActivity {
 
         String targetLang = getIntent().getStringExtra(RecognizerIntent.EXTRA_LANGUAGE);
         String langCode = sp.getString("language", "auto");
-        int langToken = InputLang.getIdForLanguage(
-                InputLang.getLangList(), langCode
-        );
+        int langToken = InputLang.getIdForLanguage(langCode);
         Log.d(TAG, "default langToken " + langToken);
         if (targetLang != null) {
             langCode = targetLang.split("[-_]")[0].toLowerCase();
-            langToken = InputLang.getIdForLanguage(
-                    InputLang.getLangList(), langCode
-            );
+            langToken = InputLang.getIdForLanguage(langCode);
             Log.d(TAG, "Listening in " + langCode);
         }
 
-        initModel(selectedTfliteFile, langToken);
+        initModel(selectedModel, langToken);
         setContentView(R.layout.activity_recognize);
 
         // Configure window
@@ -182,14 +176,10 @@ public class WhisperRecognizeActivity extends AppCompatActivity {
         mRecorder.start();
     }
 
-    private void initModel(File modelFile, int langToken) {
-        boolean isMultilingual = !modelFile.getName().endsWith(".en.tflite");
-        String vocabName = isMultilingual
-                ? "filters_vocab_multilingual.bin"
-                : "filters_vocab_en.bin";
-        File vocab = new File(sdcardDataFolder, vocabName);
+    private void initModel(ModelCatalog.ModelInfo model, int langToken) {
+        File vocab = new File(sdcardDataFolder, model.getVocabFileName());
         mWhisper = new Whisper(this);
-        mWhisper.loadModel(modelFile, vocab, isMultilingual);
+        mWhisper.loadModel(model.getFile(this), vocab, model.multilingual);
         mWhisper.setLanguage(langToken);
         mWhisper.setListener(new Whisper.WhisperListener() {
             @Override public void onUpdateReceived(String msg) {}
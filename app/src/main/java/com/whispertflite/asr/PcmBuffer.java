@@ -0,0 +1,59 @@
+package com.whispertflite.asr;
+
+import com.whispertflite.utils.TranscriptionArena;
+
+import java.util.ArrayDeque;
+
+// Capture buffer for up to 30 s of 16 bit PCM, handed from the Recorder to the transcription
+// without copying. Every holder (RecordBuffer, a queued TranscriptionRequest) owns a reference
+// and releases it when done, the last release returns the buffer to the pool for the next
+// recording. Two free buffers are kept: one is recorded into while the previous recording is
+// transcribed. A buffer that is never released is garbage collected like any array.
+public final class PcmBuffer {
+
+    public static final int CAPACITY = TranscriptionArena.MAX_SAMPLES * 2;
+    private static final int MAX_POOLED = 2;
+
+    private static final ArrayDeque<PcmBuffer> pool = new ArrayDeque<>();
+
+    public final byte[] data = new byte[CAPACITY];
+    private int refCount = 0;  // guarded by pool
+
+    private PcmBuffer() {
+    }
+
+    // A free buffer with one reference, owned by the caller
+    public static PcmBuffer obtain() {
+        synchronized (pool) {
+            PcmBuffer buffer = pool.poll();
+            if (buffer == null) {
+                buffer = new PcmBuffer();
+            }
+            buffer.refCount = 1;
+            return buffer;
+        }
+    }
+
+    // Adds a reference for another holder
+    public PcmBuffer retain() {
+        synchronized (pool) {
+            if (refCount <= 0) {
+                throw new IllegalStateException("PCM buffer already released");
+            }
+            refCount++;
+        }
+        return this;
+    }
+
+    // Drops the caller's reference, data must not be used after that
+    public void release() {
+        synchronized (pool) {
+            if (refCount <= 0) {
+                throw new IllegalStateException("PCM buffer already released");
+            }
+            if (--refCount == 0 && pool.size() < MAX_POOLED) {
+                pool.push(this);
+            }
+        }
+    }
+}
@@ -1,30 +1,94 @@
 package com.whispertflite.asr;
 
+import com.whispertflite.utils.WhisperMelStream;
+
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 
 public class RecordBuffer {
-    // Static variable to store the byte array
+    // Static variable to store the byte array, only the first outputLength bytes are audio
     private static byte[] outputBuffer;
+    private static int outputLength;
+    // Pooled buffer holding outputBuffer, RecordBuffer owns a reference until the next recording
+    private static PcmBuffer pcmBuffer;
+    // Mel stage fed by the Recorder while capturing, registered by the loaded engine
+    private static WhisperMelStream melStream;
 
     // Synchronized method to set the byte array
     public static synchronized void setOutputBuffer(byte[] buffer) {
+        setOutputBuffer(buffer, buffer.length);
+    }
+
+    // The recording is the first length bytes of buffer, which is not copied
+    public static synchronized void setOutputBuffer(byte[] buffer, int length) {
+        setPcmBuffer(null);
         outputBuffer = buffer;
+        outputLength = length;
+    }
+
+    // Takes over the caller's reference of buffer, the one of the previous recording is released
+    public static synchronized void setOutputBuffer(PcmBuffer buffer, int length) {
+        setPcmBuffer(buffer);
+        outputBuffer = buffer.data;
+        outputLength = length;
+    }
+
+    // A new reference of the pooled buffer of the recording, null if it is not pooled
+    public static synchronized PcmBuffer retainPcmBuffer() {
+        return pcmBuffer != null ? pcmBuffer.retain() : null;
+    }
+
+    private static void setPcmBuffer(PcmBuffer buffer) {
+        if (pcmBuffer != null) {
+            pcmBuffer.release();
+        }
+        pcmBuffer = buffer;
     }
 
-    // Synchronized method to get the byte array
+    // Synchronized method to get the byte array, may be longer than the recording
     public static synchronized byte[] getOutputBuffer() {
         return outputBuffer;
     }
 
+    // Number of 16 bit samples recorded
+    public static synchronized int getSampleCount() {
+        return outputBuffer != null ? outputLength / 2 : 0;
+    }
+
+    public static synchronized void setMelStream(WhisperMelStream stream) {
+        melStream = stream;
+    }
+
+    public static synchronized WhisperMelStream getMelStream() {
+        return melStream;
+    }
+
     public static float[] getSamples() {
+        float[] samples = new float[getSampleCount()];
+        getSamples(samples);
+        return samples;
+    }
 
-        int numSamples = RecordBuffer.getOutputBuffer().length / 2;
-        ByteBuffer byteBuffer = ByteBuffer.wrap(RecordBuffer.getOutputBuffer());
+    // Converts the recording to PCM_FLOAT into samples without allocating,
+    // returns the number of samples written
+    public static int getSamples(float[] samples) {
+        byte[] buffer;
+        int length;
+        synchronized (RecordBuffer.class) {
+            buffer = outputBuffer;
+            length = outputLength;
+        }
+        return getSamples(buffer, length, samples);
+    }
+
+    // Same for the first length bytes of pcm
+    public static int getSamples(byte[] pcm, int length, float[] samples) {
+
+        int numSamples = Math.min(length / 2, samples.length);
+        ByteBuffer byteBuffer = ByteBuffer.wrap(pcm);
         byteBuffer.order(ByteOrder.nativeOrder());
 
         // Convert audio data to PCM_FLOAT format
-        float[] samples = new float[numSamples];
         float maxAbsValue = 0.0f;
 
         for (int i = 0; i < numSamples; i++) {
@@ -42,7 +106,7 @@ public class RecordBuffer {
             }
         }
 
-        return samples;
+        return numSamples;
 
     }
 }
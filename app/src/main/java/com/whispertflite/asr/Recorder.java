@@ -16,8 +16,7 @@ import com.konovalov.vad.webrtc.config.FrameSize;
 import com.konovalov.vad.webrtc.config.Mode;
 import com.konovalov.vad.webrtc.config.SampleRate;
 import com.whispertflite.R;
-
-import java.io.ByteArrayOutputStream;
+import com.whispertflite.utils.WhisperMelStream;
 
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.Condition;
@@ -30,6 +29,14 @@ public class Recorder {
         void onUpdateReceived(String message);
     }
 
+    // Windows of a continuous recording, see setContinuous(). pcm holds length bytes of
+    // 16 bit PCM, the first overlapBytes of them repeat the end of the previous window.
+    // The window with last set ends the recording, it may be empty. The listener owns the
+    // reference of pcm and releases it when done.
+    public interface ChunkListener {
+        void onChunkRecorded(PcmBuffer pcm, int length, int overlapBytes, boolean last);
+    }
+
     private static final String TAG = "Recorder";
     public static final String ACTION_STOP = "Stop";
     public static final String ACTION_RECORD = "Record";
@@ -50,6 +57,13 @@ public class Recorder {
     private VadWebRTC vad = null;
     private static final int VAD_FRAME_SIZE = 480;
 
+    // Continuous mode: a window is cut at the first pause after CHUNK_MIN_SECONDS, or at
+    // 30 s in the middle of speech, in which case the next one repeats CHUNK_OVERLAP_SECONDS
+    private static final int CHUNK_MIN_SECONDS = 10;
+    private static final int CHUNK_OVERLAP_SECONDS = 2;
+    private volatile boolean continuous = false;
+    private ChunkListener mChunkListener;
+
     private final Thread workerThread;
 
     public Recorder(Context context) {
@@ -64,6 +78,16 @@ public class Recorder {
         this.mListener = listener;
     }
 
+    public void setChunkListener(ChunkListener listener) {
+        this.mChunkListener = listener;
+    }
+
+    // Records until stop() instead of up to 30 s and hands the audio to the ChunkListener in
+    // windows while recording goes on, RecordBuffer is not used then
+    public void setContinuous(boolean continuous) {
+        this.continuous = continuous;
+    }
+
 
     public void start() {
         if (!mInProgress.compareAndSet(false, true)) {
@@ -116,6 +140,15 @@ public class Recorder {
             mListener.onUpdateReceived(message);
     }
 
+    // Hands buffer over, capturing continues into another one while it is transcribed
+    private void sendChunk(PcmBuffer buffer, int length, int overlapBytes, boolean last) {
+        Log.d(TAG, "Window of " + length + " bytes, overlap " + overlapBytes + (last ? ", last" : ""));
+        if (mChunkListener != null)
+            mChunkListener.onChunkRecorded(buffer, length, overlapBytes, last);
+        else
+            buffer.release();
+    }
+
 
     private void recordLoop() {
         while (true) {
@@ -166,7 +199,35 @@ public class Recorder {
         // Calculate maximum byte counts for 30 seconds (for saving)
         int bytesForThirtySeconds = sampleRateInHz * bytesPerSample * channels * 30;
 
-        ByteArrayOutputStream outputBuffer = new ByteArrayOutputStream(); // Buffer for saving data RecordBuffer
+        // Capture into a pooled buffer that is handed to the transcription when done, the
+        // next recording or window gets the other one of the pool meanwhile
+        PcmBuffer buffer = PcmBuffer.obtain();
+        byte[] outputBuffer = buffer.data;
+        int maxBytes = Math.min(outputBuffer.length, bytesForThirtySeconds);
+
+        // Compute mel frames while capturing so only the tail remains after stop. Windows of
+        // a continuous recording are transcribed from their samples instead.
+        WhisperMelStream melStream = RecordBuffer.getMelStream();
+        if (melStream != null) melStream.reset();
+        boolean isContinuous = continuous;
+        if (isContinuous) melStream = null;
+
+        // Pauses between sentences, where a window can be cut without splitting a word
+        VadWebRTC pauseVad = null;
+        if (isContinuous) {
+            pauseVad = Vad.builder()
+                    .setSampleRate(SampleRate.SAMPLE_RATE_16K)
+                    .setFrameSize(FrameSize.FRAME_SIZE_480)
+                    .setMode(Mode.VERY_AGGRESSIVE)
+                    .setSilenceDurationMs(300)
+                    .setSpeechDurationMs(200)
+                    .build();
+        }
+        int minChunkBytes = sampleRateInHz * bytesPerSample * channels * CHUNK_MIN_SECONDS;
+        int overlapBytes = sampleRateInHz * bytesPerSample * channels * CHUNK_OVERLAP_SECONDS;
+        int chunkOverlap = 0;  // bytes at the start of outputBuffer the previous window had
+        boolean chunkHasSpeech = false;
+        boolean hadSpeech = false;
 
         byte[] audioData = new byte[bufferSize];
         int totalBytesRead = 0;
@@ -175,21 +236,44 @@ public class Recorder {
         boolean isRecording = false;
         byte[] vadAudioBuffer = new byte[VAD_FRAME_SIZE * 2];  //VAD needs 16 bit
 
-        while (mInProgress.get() && totalBytesRead < bytesForThirtySeconds) {
+        while (mInProgress.get()) {
+            if (!isContinuous && totalBytesRead >= maxBytes) break;
+
             int bytesRead = audioRecord.read(audioData, 0, VAD_FRAME_SIZE * 2);
             if (bytesRead > 0) {
-                outputBuffer.write(audioData, 0, bytesRead);  // Save all bytes read up to 30 seconds
+                if (isContinuous && totalBytesRead + bytesRead > maxBytes) {
+                    // The window is full, cut it before this read so the read goes whole
+                    // into the next window
+                    if (chunkHasSpeech) {
+                        // No pause for 30 s, cut and repeat the end in the next window
+                        PcmBuffer next = PcmBuffer.obtain();
+                        System.arraycopy(outputBuffer, totalBytesRead - overlapBytes, next.data, 0, overlapBytes);
+                        sendChunk(buffer, totalBytesRead, chunkOverlap, false);
+                        buffer = next;
+                        outputBuffer = buffer.data;
+                        totalBytesRead = overlapBytes;
+                        chunkOverlap = overlapBytes;
+                    } else {
+                        // Nothing but silence, keep only the end in case speech starts in it
+                        System.arraycopy(outputBuffer, totalBytesRead - overlapBytes, outputBuffer, 0, overlapBytes);
+                        totalBytesRead = overlapBytes;
+                        chunkOverlap = 0;
+                    }
+                    chunkHasSpeech = false;
+                }
+                bytesRead = Math.min(bytesRead, maxBytes - totalBytesRead);
+                System.arraycopy(audioData, 0, outputBuffer, totalBytesRead, bytesRead);  // Save all bytes read up to 30 seconds
                 totalBytesRead += bytesRead;
+                if (melStream != null) melStream.write(audioData, 0, bytesRead);
             } else {
                 Log.d(TAG, "AudioRecord error, bytes read: " + bytesRead);
                 break;
             }
 
             if (useVAD){
-                byte[] outputBufferByteArray = outputBuffer.toByteArray();
-                if (outputBufferByteArray.length >= VAD_FRAME_SIZE * 2) {
+                if (totalBytesRead >= VAD_FRAME_SIZE * 2) {
                     // Always use the last VAD_FRAME_SIZE * 2 bytes (16 bit) from outputBuffer for VAD
-                    System.arraycopy(outputBufferByteArray, outputBufferByteArray.length - VAD_FRAME_SIZE * 2, vadAudioBuffer, 0, VAD_FRAME_SIZE * 2);
+                    System.arraycopy(outputBuffer, totalBytesRead - VAD_FRAME_SIZE * 2, vadAudioBuffer, 0, VAD_FRAME_SIZE * 2);
 
                     isSpeech = vad.isSpeech(vadAudioBuffer);
                     if (isSpeech) {
@@ -209,6 +293,23 @@ public class Recorder {
                 if (!isRecording) sendUpdate(MSG_RECORDING);
                 isRecording = true;
             }
+
+            if (pauseVad != null && totalBytesRead >= VAD_FRAME_SIZE * 2) {
+                System.arraycopy(outputBuffer, totalBytesRead - VAD_FRAME_SIZE * 2, vadAudioBuffer, 0, VAD_FRAME_SIZE * 2);
+                if (pauseVad.isSpeech(vadAudioBuffer)) {
+                    chunkHasSpeech = true;
+                    hadSpeech = true;
+                } else if (chunkHasSpeech && totalBytesRead >= minChunkBytes) {
+                    // Pause after enough speech, the window ends here without overlap
+                    Log.d(TAG, "Pause after " + totalBytesRead + " bytes, next window");
+                    sendChunk(buffer, totalBytesRead, chunkOverlap, false);
+                    buffer = PcmBuffer.obtain();
+                    outputBuffer = buffer.data;
+                    totalBytesRead = 0;
+                    chunkOverlap = 0;
+                    chunkHasSpeech = false;
+                }
+            }
         }
         Log.d(TAG, "Total bytes recorded: " + totalBytesRead);
 
@@ -221,12 +322,19 @@ public class Recorder {
         audioRecord.stop();
         audioRecord.release();
 
-        // Save recorded audio data to BufferStore (up to 30 seconds)
-        RecordBuffer.setOutputBuffer(outputBuffer.toByteArray());
-        if (totalBytesRead > 6400){  //min 0.2s
-            sendUpdate(MSG_RECORDING_DONE);
+        if (isContinuous) {
+            pauseVad.close();
+            // The rest is the last window, empty if it holds no speech
+            sendChunk(buffer, chunkHasSpeech ? totalBytesRead : 0, chunkOverlap, true);
+            sendUpdate(hadSpeech ? MSG_RECORDING_DONE : MSG_RECORDING_ERROR);
         } else {
-            sendUpdate(MSG_RECORDING_ERROR);
+            // Save recorded audio data to BufferStore (up to 30 seconds)
+            RecordBuffer.setOutputBuffer(buffer, totalBytesRead);
+            if (totalBytesRead > 6400){  //min 0.2s
+                sendUpdate(MSG_RECORDING_DONE);
+            } else {
+                sendUpdate(MSG_RECORDING_ERROR);
+            }
         }
 
         // Notify the waiting thread that recording is complete
@@ -0,0 +1,111 @@
+package com.whispertflite.asr;
+
+import com.whispertflite.utils.WhisperMelStream;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// One utterance to transcribe: 16 kHz mono 16 bit PCM and how to transcribe it. Immutable
+// apart from release(): the audio is copied, or the request owns a reference of the pooled
+// capture buffer, so its source can record the next utterance right away.
+public final class TranscriptionRequest {
+    private final byte[] pcm;
+    private final PcmBuffer pcmBuffer;  // owner of pcm if pooled
+    private final AtomicBoolean released = new AtomicBoolean(false);
+    private final int length;
+    private final Whisper.Action action;
+    private final int langToken;
+    private final long timeoutMs;
+
+    // Mel frames computed while the audio was captured, valid as long as the stream
+    // is still at this generation, see WhisperMelStream.finish()
+    private final WhisperMelStream melStream;
+    private final int melStreamGeneration;
+
+    // The first length bytes of pcm, langToken -1 to detect the language, timeoutMs 0 for
+    // no deadline
+    public TranscriptionRequest(byte[] pcm, int length, Whisper.Action action, int langToken, long timeoutMs) {
+        this(Arrays.copyOf(pcm, length), null, length, action, langToken, timeoutMs, null, 0);
+    }
+
+    private TranscriptionRequest(byte[] pcm, PcmBuffer pcmBuffer, int length, Whisper.Action action, int langToken,
+                                 long timeoutMs, WhisperMelStream melStream, int melStreamGeneration) {
+        this.pcm = pcm;
+        this.pcmBuffer = pcmBuffer;
+        this.length = length;
+        this.action = action;
+        this.langToken = langToken;
+        this.timeoutMs = timeoutMs;
+        this.melStream = melStream;
+        this.melStreamGeneration = melStreamGeneration;
+    }
+
+    // The last recording of RecordBuffer, with the mel frames the Recorder computed for it.
+    // A recording of the Recorder is shared through its pooled buffer, others are copied.
+    public static TranscriptionRequest fromRecordBuffer(Whisper.Action action, int langToken, long timeoutMs) {
+        synchronized (RecordBuffer.class) {
+            byte[] buffer = RecordBuffer.getOutputBuffer();
+            int length = RecordBuffer.getSampleCount() * 2;
+            WhisperMelStream stream = RecordBuffer.getMelStream();
+            if (stream == null || stream.getSampleCount() != length / 2) {
+                stream = null;
+            }
+            int generation = stream != null ? stream.getGeneration() : 0;
+            PcmBuffer pcmBuffer = RecordBuffer.retainPcmBuffer();
+            if (pcmBuffer != null) {
+                return new TranscriptionRequest(pcmBuffer.data, pcmBuffer, length, action, langToken, timeoutMs,
+                        stream, generation);
+            }
+            return new TranscriptionRequest(buffer != null ? Arrays.copyOf(buffer, length) : new byte[0], null, length,
+                    action, langToken, timeoutMs, stream, generation);
+        }
+    }
+
+    // Takes pcm as is, for buffers nobody else writes to
+    static TranscriptionRequest wrap(byte[] pcm, int length, Whisper.Action action, int langToken, long timeoutMs) {
+        return new TranscriptionRequest(pcm, null, length, action, langToken, timeoutMs, null, 0);
+    }
+
+    // Takes over the caller's reference of pcmBuffer
+    static TranscriptionRequest wrap(PcmBuffer pcmBuffer, int length, Whisper.Action action, int langToken, long timeoutMs) {
+        return new TranscriptionRequest(pcmBuffer.data, pcmBuffer, length, action, langToken, timeoutMs, null, 0);
+    }
+
+    // The request is done, a pooled buffer may be recorded into again. The audio must not be
+    // read after this, further calls do nothing.
+    public void release() {
+        if (pcmBuffer != null && released.compareAndSet(false, true)) {
+            pcmBuffer.release();
+        }
+    }
+
+    public int getSampleCount() {
+        return length / 2;
+    }
+
+    // Converts the audio to PCM_FLOAT into samples, normalized like RecordBuffer.getSamples(),
+    // returns the number of samples written
+    public int getSamples(float[] samples) {
+        return RecordBuffer.getSamples(pcm, length, samples);
+    }
+
+    public Whisper.Action getAction() {
+        return action;
+    }
+
+    public int getLangToken() {
+        return langToken;
+    }
+
+    public long getTimeoutMs() {
+        return timeoutMs;
+    }
+
+    public WhisperMelStream getMelStream() {
+        return melStream;
+    }
+
+    public int getMelStreamGeneration() {
+        return melStreamGeneration;
+    }
+}
@@ -3,11 +3,22 @@ package com.whispertflite.asr;
 import android.content.Context;
 import android.util.Log;
 
+import com.whispertflite.engine.ModelRegistry;
 import com.whispertflite.engine.WhisperEngine;
-import com.whispertflite.engine.WhisperEngineJava;
+import com.whispertflite.utils.CancellationToken;
+import com.whispertflite.utils.TranscriptStitcher;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
@@ -23,6 +34,20 @@ public class Whisper {
     private static final String TAG = "Whisper";
     public static final String MSG_PROCESSING = "Processing...";
     public static final String MSG_PROCESSING_DONE = "Processing done...!";
+    public static final String MSG_CANCELLED = "Transcription cancelled";
+    public static final String MSG_TIMED_OUT = "Transcription timed out";
+    public static final String MSG_QUEUE_FULL = "Transcription queue full";
+    public static final String MSG_NOT_INITIALIZED = "Engine not initialized or file path not set";
+
+    // How often a transcription waiting for the model checks for cancellation
+    private static final long MODEL_WAIT_POLL_MS = 100;
+
+    // Requests waiting for the engine, more are rejected
+    public static final int MAX_QUEUED_JOBS = 8;
+    // Windows of a continuous dictation are not held to MAX_QUEUED_JOBS, the Recorder cannot
+    // wait and a dropped window loses speech. On a device slower than real time they pile up,
+    // this bounds the backlog to at most half an hour of audio (under 60 MB).
+    public static final int MAX_QUEUED_WINDOWS = 60;
 
     public static final Action ACTION_TRANSCRIBE = Action.TRANSCRIBE;
     public static final Action ACTION_TRANSLATE = Action.TRANSLATE;
@@ -33,52 +58,145 @@ public class Whisper {
     }
 
     private final AtomicBoolean mInProgress = new AtomicBoolean(false);
+    private long mTimeoutMs = 0;
 
-    private final WhisperEngine mWhisperEngine;
+    private final Context mContext;
+    private ModelRegistry.Handle mModelHandle = null;
+    private volatile WhisperEngine mWhisperEngine = null;
+    private Thread mProcessingThread = null;
+    private volatile Future<Boolean> mModelReady = null;
+    private final Object mModelLock = new Object();
+    private int mModelGeneration = 0;
     private Action mAction;
     private int mLangToken = -1;
     private WhisperListener mUpdateListener;
 
     private final Lock taskLock = new ReentrantLock();
     private final Condition hasTask = taskLock.newCondition();
-    private volatile boolean taskAvailable = false;
+    private final ArrayDeque<Job> mJobs = new ArrayDeque<>();
+    private int mQueuedWindows = 0;  // of mJobs
+    private Job mRunningJob = null;
 
-    public Whisper(Context context) {
-        this.mWhisperEngine = new WhisperEngineJava(context);
+    // Windows of a continuous dictation, see Recorder.setContinuous()
+    private static final int MIN_WINDOW_SAMPLES = 3200;  // 0.2 s
+    private final TranscriptStitcher mStitcher = new TranscriptStitcher();
+
+    // The model failed to load or was released, the job's future fails with it
+    private static final class NotInitializedException extends IllegalStateException {
+        NotInitializedException() {
+            super(MSG_NOT_INITIALIZED);
+        }
+    }
 
-        // Start thread for RecordBuffer transcription
-        Thread threadProcessRecordBuffer = new Thread(this::processRecordBufferLoop);
-        threadProcessRecordBuffer.start();
+    // A queued request. Its future completes with the result, cancelling it aborts a running
+    // transcription through the token, the processing thread is never interrupted. The
+    // request's deadline starts when the job is taken from the queue, not while it waits.
+    private final class Job {
+        final TranscriptionRequest request;
+        final CancellationToken token;
+        final WhisperListener listener;  // null for the one set with setListener()
+        final boolean window;
+        final boolean overlapped;
+        boolean last;  // guarded by taskLock once queued
+        final FutureTask<WhisperResult> future;
 
+        Job(TranscriptionRequest request, WhisperListener listener, boolean window, boolean overlapped, boolean last) {
+            this.request = request;
+            this.token = new CancellationToken(0);
+            this.listener = listener;
+            this.window = window;
+            this.overlapped = overlapped;
+            this.last = last;
+            this.future = new FutureTask<WhisperResult>(() -> runJob(this)) {
+                @Override
+                public boolean cancel(boolean mayInterruptIfRunning) {
+                    token.cancel();
+                    return super.cancel(false);
+                }
+            };
+        }
+    }
+
+    public Whisper(Context context) {
+        this.mContext = context;
     }
 
     public void setListener(WhisperListener listener) {
         this.mUpdateListener = listener;
     }
 
-    public void loadModel(File modelPath, File vocabPath, boolean isMultilingual) {
-        loadModel(modelPath.getAbsolutePath(), vocabPath.getAbsolutePath(), isMultilingual);
+    public Future<Boolean> loadModel(File modelPath, File vocabPath, boolean isMultilingual) {
         currentModelPath = modelPath.getAbsolutePath();
+        return loadModel(modelPath.getAbsolutePath(), vocabPath.getAbsolutePath(), isMultilingual);
     }
 
-    public void loadModel(String modelPath, String vocabPath, boolean isMultilingual) {
-        try {
-            mWhisperEngine.initialize(modelPath, vocabPath, isMultilingual);
-        } catch (IOException e) {
-            Log.e(TAG, "Error initializing model...", e);
-            sendUpdate("Model initialization failed");
+    // Loads the model in the background and returns right away, the future completes with
+    // true once the engine is ready. Recording can start meanwhile, a transcription started
+    // before the model is ready waits for it on the processing thread.
+    // The engine comes from the shared registry, a model loaded before is reused as is.
+    public Future<Boolean> loadModel(String modelPath, String vocabPath, boolean isMultilingual) {
+        int generation = releaseModel();
+
+        // Start thread for the queued transcriptions
+        if (mProcessingThread == null) {
+            mProcessingThread = new Thread(this::processJobLoop, "WhisperProcessing");
+            mProcessingThread.start();
         }
+
+        FutureTask<Boolean> modelReady = new FutureTask<>(() -> {
+            ModelRegistry.Handle handle;
+            try {
+                handle = ModelRegistry.acquire(mContext, modelPath, vocabPath, isMultilingual);
+            } catch (IOException e) {
+                Log.e(TAG, "Error initializing model...", e);
+                sendUpdate("Model initialization failed");
+                return false;
+            }
+            synchronized (mModelLock) {
+                // Released or replaced while loading
+                if (generation != mModelGeneration) {
+                    handle.release();
+                    return false;
+                }
+                mModelHandle = handle;
+                mWhisperEngine = handle.getEngine();
+            }
+            return true;
+        });
+        mModelReady = modelReady;
+        new Thread(modelReady, "WhisperModelLoad").start();
+        return modelReady;
     }
 
     public String getCurrentModelPath(){
         return currentModelPath;
     }
 
+    // Releases the model and stops the processing thread, the engine itself stays cached
+    // in the registry until it has been idle for a while. A running transcription is cancelled.
     public void unloadModel() {
-        mWhisperEngine.deinitialize();
+        stop();
+        releaseModel();
+        if (mProcessingThread != null) {
+            mProcessingThread.interrupt();
+            mProcessingThread = null;
+        }
         currentModelPath = "";
     }
 
+    // Returns the generation a load started after this belongs to
+    private int releaseModel() {
+        synchronized (mModelLock) {
+            mWhisperEngine = null;
+            mModelReady = null;
+            if (mModelHandle != null) {
+                mModelHandle.release();
+                mModelHandle = null;
+            }
+            return ++mModelGeneration;
+        }
+    }
+
     public void setAction(Action action) {
         this.mAction = action;
     }
@@ -87,69 +205,237 @@ public class Whisper {
         this.mLangToken = language;
     }
 
+    // Deadline of each following start() and addChunk() in ms, 0 for none. A transcription
+    // past it is aborted and reported as MSG_TIMED_OUT.
+    public void setTimeout(long timeoutMs) {
+        this.mTimeoutMs = timeoutMs;
+    }
+
+    // Queues the last recording of RecordBuffer with the action and language set now
     public void start() {
-        if (!mInProgress.compareAndSet(false, true)) {
-            Log.d(TAG, "Execution is already in progress...");
-            return;
-        }
+        submit(TranscriptionRequest.fromRecordBuffer(mAction, mLangToken, mTimeoutMs));
+    }
+
+    // Queues the request, the result goes to the listener set with setListener()
+    public Future<WhisperResult> submit(TranscriptionRequest request) {
+        return submit(request, null);
+    }
+
+    // Queues the request, its updates and result go to listener. Requests run one after the
+    // other in the order submitted. The future fails with RejectedExecutionException if
+    // MAX_QUEUED_JOBS requests are waiting already, cancelling it aborts the transcription.
+    public Future<WhisperResult> submit(TranscriptionRequest request, WhisperListener listener) {
+        return enqueue(new Job(request, listener, false, false, false));
+    }
+
+    // Queues a window of a continuous dictation, it is transcribed with the action and language
+    // set now while the next one is being recorded. Each result holds only the new text.
+    // pcm is not copied, nobody may write to it afterwards.
+    public void addChunk(byte[] pcm, int length, int overlapBytes, boolean last) {
+        TranscriptionRequest request = TranscriptionRequest.wrap(pcm, length, mAction, mLangToken, mTimeoutMs);
+        enqueue(new Job(request, null, true, overlapBytes > 0, last));
+    }
+
+    // Fits Recorder.ChunkListener, takes over the Recorder's reference of pcm and releases it
+    // once the window is transcribed or dropped
+    public void addChunk(PcmBuffer pcm, int length, int overlapBytes, boolean last) {
+        TranscriptionRequest request = TranscriptionRequest.wrap(pcm, length, mAction, mLangToken, mTimeoutMs);
+        enqueue(new Job(request, null, true, overlapBytes > 0, last));
+    }
+
+    private Future<WhisperResult> enqueue(Job job) {
+        boolean queued = false;
         taskLock.lock();
         try {
-            taskAvailable = true;
-            hasTask.signal();
+            if (job.window ? mQueuedWindows >= MAX_QUEUED_WINDOWS : mJobs.size() - mQueuedWindows >= MAX_QUEUED_JOBS) {
+                Log.d(TAG, "Transcription queue is full, dropping request");
+                job.token.finish();
+                job.request.release();
+                if (job.last) {
+                    endDictation();
+                }
+            } else {
+                mJobs.add(job);
+                if (job.window) mQueuedWindows++;
+                mInProgress.set(true);
+                hasTask.signal();
+                queued = true;
+            }
         } finally {
             taskLock.unlock();
         }
+        if (queued) {
+            return job.future;
+        }
+
+        // Outside the lock, the listener may call back into this Whisper
+        sendUpdate(job, MSG_QUEUE_FULL);
+        FutureTask<WhisperResult> rejected = new FutureTask<>(() -> {
+            throw new RejectedExecutionException(MSG_QUEUE_FULL);
+        });
+        rejected.run();
+        return rejected;
     }
 
+    // The last window of a dictation was dropped, the window before it ends the dictation
+    // instead, so the next dictation is not stitched to this one. Called with taskLock held.
+    private void endDictation() {
+        Job previous = mRunningJob != null && mRunningJob.window ? mRunningJob : null;
+        for (Job queued : mJobs) {
+            if (queued.window) previous = queued;
+        }
+        if (previous != null) {
+            previous.last = true;
+        } else {
+            mStitcher.reset();
+        }
+    }
+
+    // Cancels the running transcription and drops the queued ones, the interpreter and the
+    // mel workers stop within a frame or an op. MSG_CANCELLED is reported for every one of them.
     public void stop() {
+        List<Job> dropped;
+        taskLock.lock();
+        try {
+            dropped = new ArrayList<>(mJobs);
+            for (Job job : mJobs) {
+                job.future.cancel(false);
+                job.request.release();
+            }
+            mJobs.clear();
+            mQueuedWindows = 0;
+            if (mRunningJob != null) {
+                mRunningJob.future.cancel(false);
+            }
+            mStitcher.reset();
+        } finally {
+            taskLock.unlock();
+        }
         mInProgress.set(false);
+        // The running job reports its own cancellation, the queued ones never run
+        for (Job job : dropped) {
+            sendUpdate(job, MSG_CANCELLED);
+        }
     }
 
+    // A request is queued or running
     public boolean isInProgress() {
         return mInProgress.get();
     }
 
-    private void processRecordBufferLoop() {
+    // Runs the queued jobs outside taskLock, so new requests can be queued while one is
+    // transcribed
+    private void processJobLoop() {
         while (!Thread.currentThread().isInterrupted()) {
+            Job job;
             taskLock.lock();
             try {
-                while (!taskAvailable) {
+                while (mJobs.isEmpty()) {
                     hasTask.await();
                 }
-                processRecordBuffer();
-                taskAvailable = false;
+                job = mJobs.poll();
+                if (job.window) mQueuedWindows--;
+                mRunningJob = job;
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
+                return;
+            } finally {
+                taskLock.unlock();
+            }
+
+            job.future.run();
+            job.request.release();
+
+            taskLock.lock();
+            try {
+                if (job.last) {
+                    mStitcher.reset();
+                }
+                mRunningJob = null;
+                if (mJobs.isEmpty()) {
+                    mInProgress.set(false);
+                }
             } finally {
                 taskLock.unlock();
             }
         }
     }
 
-    private void processRecordBuffer() {
+    // Body of a job's future, failures are reported as updates and complete the future
+    private WhisperResult runJob(Job job) throws Exception {
+        job.token.startDeadline(job.request.getTimeoutMs());
         try {
-            if (mWhisperEngine.isInitialized() && RecordBuffer.getOutputBuffer() != null) {
-                long startTime = System.currentTimeMillis();
-                sendUpdate(MSG_PROCESSING);
-
-                WhisperResult whisperResult = null;
-                synchronized (mWhisperEngine) {
-                    whisperResult = mWhisperEngine.processRecordBuffer(mAction, mLangToken);
-                }
-                sendResult(whisperResult);
+            if (job.window && job.request.getSampleCount() < MIN_WINDOW_SAMPLES) {
+                // Only the end of the dictation, nothing to transcribe
+                return new WhisperResult("", "", job.request.getAction());
+            }
 
-                long timeTaken = System.currentTimeMillis() - startTime;
-                Log.d(TAG, "Time Taken for transcription: " + timeTaken + "ms");
-                sendUpdate(MSG_PROCESSING_DONE);
-            } else {
-                sendUpdate("Engine not initialized or file path not set");
+            WhisperResult whisperResult = transcribe(job);
+            if (job.window) {
+                String text = mStitcher.append(whisperResult.getResult(), job.overlapped);
+                whisperResult = new WhisperResult(text, whisperResult.getLanguage(), whisperResult.getTask());
+            }
+            if (!job.window || !whisperResult.getResult().isEmpty()) {
+                sendResult(job, whisperResult);
+            }
+            sendUpdate(job, MSG_PROCESSING_DONE);
+            return whisperResult;
+        } catch (CancellationException e) {
+            Log.d(TAG, e.getMessage());
+            if (job.token.isTimedOut()) {
+                sendUpdate(job, MSG_TIMED_OUT);
+                throw new TimeoutException(e.getMessage());
             }
+            sendUpdate(job, MSG_CANCELLED);
+            throw e;
+        } catch (NotInitializedException e) {
+            Log.d(TAG, e.getMessage());
+            sendUpdate(job, MSG_NOT_INITIALIZED);
+            throw e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw e;
         } catch (Exception e) {
             Log.e(TAG, "Error during transcription", e);
-            sendUpdate("Transcription failed: " + e.getMessage());
+            sendUpdate(job, "Transcription failed: " + e.getMessage());
+            throw e;
         } finally {
-            mInProgress.set(false);
+            job.token.finish();
+        }
+    }
+
+    private WhisperResult transcribe(Job job) throws Exception {
+        CancellationToken token = job.token;
+
+        // The audio is complete, only now wait for a model that is still loading
+        Future<Boolean> modelReady = mModelReady;
+        if (modelReady != null && !modelReady.isDone()) {
+            Log.d(TAG, "Waiting for the model to finish loading...");
+            while (!modelReady.isDone()) {
+                token.throwIfCancelled();
+                try {
+                    modelReady.get(MODEL_WAIT_POLL_MS, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    // Check the token again
+                }
+            }
+        }
+
+        WhisperEngine whisperEngine = mWhisperEngine;
+        if (whisperEngine == null || !whisperEngine.isInitialized()) {
+            throw new NotInitializedException();
+        }
+        long startTime = System.currentTimeMillis();
+        sendUpdate(job, MSG_PROCESSING);
+
+        WhisperResult whisperResult;
+        synchronized (whisperEngine) {
+            whisperResult = whisperEngine.processRequest(job.request, token);
         }
+
+        long timeTaken = System.currentTimeMillis() - startTime;
+        Log.d(TAG, "Time Taken for transcription: " + timeTaken + "ms");
+        return whisperResult;
     }
 
     private void sendUpdate(String message) {
@@ -158,9 +444,17 @@ public class Whisper {
         }
     }
 
-    private void sendResult(WhisperResult whisperResult) {
-        if (mUpdateListener != null) {
-            mUpdateListener.onResultReceived(whisperResult);
+    private void sendUpdate(Job job, String message) {
+        WhisperListener listener = job.listener != null ? job.listener : mUpdateListener;
+        if (listener != null) {
+            listener.onUpdateReceived(message);
+        }
+    }
+
+    private void sendResult(Job job, WhisperResult whisperResult) {
+        WhisperListener listener = job.listener != null ? job.listener : mUpdateListener;
+        if (listener != null) {
+            listener.onResultReceived(whisperResult);
         }
     }
 
@@ -0,0 +1,90 @@
+package com.whispertflite.engine;
+
+import org.tensorflow.lite.Interpreter;
+import org.tensorflow.lite.Tensor;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+// Everything needed to run one model signature, resolved once when the model is loaded:
+// signature key, input/output names and the buffers bound to them. Running it only sets
+// the language token and calls runSignature.
+final class InferencePlan {
+    final String signatureKey;
+    final boolean usesLangToken;
+    final ByteBuffer inputBuffer;  // mel spectrogram, N_MEL x inputFrames
+    final int inputFrames;
+    final ByteBuffer outputBuffer;
+    final int outputLength;
+
+    private final IntBuffer mLangTokenBuffer;
+    private final Map<String, Object> mInputs;
+    private final Map<String, Object> mOutputs;
+
+    // The mel input is the start of sharedInput, which all plans of the model use and which
+    // must be large enough for the biggest of them
+    InferencePlan(Interpreter interpreter, String signatureKey, ByteBuffer sharedInput) {
+        this.signatureKey = signatureKey;
+
+        String[] inputs = interpreter.getSignatureInputs(signatureKey);
+        Tensor inputTensor = interpreter.getInputTensorFromSignature(inputs[0], signatureKey);
+        inputFrames = inputTensor.shape()[2];
+        ByteBuffer input = sharedInput.duplicate();
+        input.clear();
+        input.limit(inputTensor.numBytes());
+        inputBuffer = input.slice();
+        inputBuffer.order(ByteOrder.nativeOrder());
+
+        Map<String, Object> inputsMap = new HashMap<>();
+        inputsMap.put(inputs[0], inputBuffer);
+        usesLangToken = inputs.length > 1;
+        if (usesLangToken) {
+            mLangTokenBuffer = IntBuffer.allocate(1);
+            inputsMap.put(inputs[1], mLangTokenBuffer);
+        } else {
+            mLangTokenBuffer = null;
+        }
+        mInputs = Collections.unmodifiableMap(inputsMap);
+
+        String[] outputs = interpreter.getSignatureOutputs(signatureKey);
+        Tensor outputTensor = interpreter.getOutputTensorFromSignature(outputs[0], signatureKey);
+        outputLength = outputTensor.numElements();
+        outputBuffer = ByteBuffer.allocateDirect(outputTensor.numBytes());
+        outputBuffer.order(ByteOrder.nativeOrder());
+        mOutputs = Collections.singletonMap(outputs[0], outputBuffer);
+    }
+
+    // Input size in bytes of the signature's mel input
+    static int getInputBytes(Interpreter interpreter, String signatureKey) {
+        String[] inputs = interpreter.getSignatureInputs(signatureKey);
+        return interpreter.getInputTensorFromSignature(inputs[0], signatureKey).numBytes();
+    }
+
+    // Smallest plan whose audio window holds nFrames, the largest if none does.
+    // plans is sorted by inputFrames.
+    static InferencePlan selectBucket(InferencePlan[] plans, int nFrames) {
+        for (InferencePlan plan : plans) {
+            if (plan.inputFrames >= nFrames) {
+                return plan;
+            }
+        }
+        return plans[plans.length - 1];
+    }
+
+    // Runs the signature, afterwards outputBuffer holds outputLength int32 token ids
+    void run(Interpreter interpreter, int langToken) {
+        if (usesLangToken) {
+            mLangTokenBuffer.clear();
+            mLangTokenBuffer.put(langToken);
+            mLangTokenBuffer.rewind();
+        }
+        inputBuffer.rewind();
+        outputBuffer.clear();
+        interpreter.runSignature(mInputs, mOutputs, signatureKey);
+        outputBuffer.rewind();
+    }
+}
@@ -0,0 +1,323 @@
+package com.whispertflite.engine;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// Process-wide cache of loaded engines, keyed by model path and multilingual flag.
+// Every user acquires a Handle and releases it when done. An engine nobody holds stays
+// loaded for the idle timeout, so the next activity/service/IME session reuses the warm
+// interpreter, and is unloaded after that or as soon as the system asks to trim memory.
+// Engines are created by the factory the application registers, see WhisperApplication.
+public final class ModelRegistry {
+    private static final String TAG = "ModelRegistry";
+
+    public static final long DEFAULT_IDLE_TIMEOUT_MS = 2 * 60 * 1000;
+
+    private static final Map<String, Entry> entries = new HashMap<>();
+    private static final Map<String, Load> loads = new HashMap<>();
+    private static long idleTimeoutMs = DEFAULT_IDLE_TIMEOUT_MS;
+    private static ScheduledThreadPoolExecutor evictionExecutor;
+    private static boolean trimCallbacksRegistered = false;
+    private static EngineFactory engineFactory = null;
+    private static int useCount = 0;
+    private static Runnable useListener = null;
+
+    private ModelRegistry() {
+    }
+
+    // Creates an engine that is not initialized yet, e.g. WhisperEngineJava::new
+    public interface EngineFactory {
+        WhisperEngine create(Context context);
+    }
+
+    // Engines loaded from now on come from factory, cached ones stay
+    public static synchronized void setEngineFactory(EngineFactory factory) {
+        engineFactory = factory;
+    }
+
+    // Runs on every acquire, before the engine is loaded or handed out. Background work that
+    // competes with the engines for cores and memory, like ThreadAutotuner, stops there.
+    public static synchronized void setUseListener(Runnable listener) {
+        useListener = listener;
+    }
+
+    // True while an engine is referenced or being loaded
+    public static synchronized boolean isInUse() {
+        if (!loads.isEmpty()) {
+            return true;
+        }
+        for (Entry entry : entries.values()) {
+            if (entry.refCount > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Number of acquire calls so far, a change means an engine was used in between
+    public static synchronized int getUseCount() {
+        return useCount;
+    }
+
+    // Reference to a loaded engine, release it exactly once when the engine is no longer used
+    public static final class Handle {
+        private final Entry entry;
+        private boolean released = false;
+
+        private Handle(Entry entry) {
+            this.entry = entry;
+        }
+
+        public WhisperEngine getEngine() {
+            return entry.engine;
+        }
+
+        public void release() {
+            synchronized (ModelRegistry.class) {
+                if (released) {
+                    return;
+                }
+                released = true;
+                ModelRegistry.release(entry);
+            }
+        }
+    }
+
+    private static final class Entry {
+        final String key;
+        final WhisperEngine engine;
+        int refCount = 0;
+        ScheduledFuture<?> eviction = null;
+
+        Entry(String key, WhisperEngine engine) {
+            this.key = key;
+            this.engine = engine;
+        }
+    }
+
+    // A model being loaded. Callers asking for it meanwhile wait for the same load instead of
+    // loading a second copy, each of them is counted as a reference of the loaded entry.
+    private static final class Load {
+        final FutureTask<Entry> task;
+        int callers = 0;
+        Entry entry = null;  // once loaded
+
+        Load(FutureTask<Entry> task) {
+            this.task = task;
+        }
+    }
+
+    // Returns a handle to the engine for the model, loading it only if it is not cached
+    public static Handle acquire(Context context, String modelPath, String vocabPath, boolean multilingual) throws IOException {
+        String key = modelPath + (multilingual ? "#multilingual" : "#en");
+        List<Entry> evicted = null;
+        Load load;
+        boolean loader = false;
+        synchronized (ModelRegistry.class) {
+            registerTrimCallbacks(context);
+            useCount++;
+            if (useListener != null) {
+                useListener.run();
+            }
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                cancelEviction(entry);
+                entry.refCount++;
+                Log.d(TAG, "Reusing loaded model " + key + ", references: " + entry.refCount);
+                return new Handle(entry);
+            }
+            load = loads.get(key);
+            if (load == null) {
+                if (engineFactory == null) {
+                    throw new IOException("No engine factory registered to load " + modelPath);
+                }
+                EngineFactory factory = engineFactory;
+                load = new Load(new FutureTask<>(() -> load(factory, context, key, modelPath, vocabPath, multilingual)));
+                loads.put(key, load);
+                loader = true;
+                // Only one large model should be resident, drop the idle ones first
+                evicted = removeIdleEntries();
+            } else {
+                Log.d(TAG, "Waiting for model " + key + " being loaded");
+            }
+            load.callers++;
+        }
+
+        if (loader) {
+            deinitialize(evicted);
+            // Load on this thread, it takes seconds for the large models
+            load.task.run();
+        }
+        try {
+            return new Handle(load.task.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            abandon(load);
+            throw new IOException("Interrupted while loading " + modelPath, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Failed to load " + modelPath, e.getCause());
+        }
+    }
+
+    // Body of a Load's task, runs outside the lock
+    private static Entry load(EngineFactory factory, Context context, String key, String modelPath, String vocabPath,
+                              boolean multilingual) throws IOException {
+        WhisperEngine engine = factory.create(context.getApplicationContext());
+        try {
+            engine.initialize(modelPath, vocabPath, multilingual);
+            if (!engine.isInitialized()) {
+                throw new IOException("Failed to initialize " + modelPath);
+            }
+        } catch (IOException | RuntimeException e) {
+            engine.deinitialize();
+            synchronized (ModelRegistry.class) {
+                loads.remove(key);
+            }
+            throw e;
+        }
+
+        synchronized (ModelRegistry.class) {
+            Load current = loads.remove(key);
+            Entry entry = new Entry(key, engine);
+            // Every caller that waited for this load holds a reference
+            entry.refCount = current.callers;
+            current.entry = entry;
+            entries.put(key, entry);
+            Log.d(TAG, "Loaded model " + key + ", references: " + entry.refCount);
+            return entry;
+        }
+    }
+
+    // A caller stopped waiting for the load, it does not take the reference it was counted with
+    private static synchronized void abandon(Load load) {
+        if (load.entry != null) {
+            release(load.entry);
+        } else {
+            load.callers--;
+        }
+    }
+
+    // How long an engine without references stays loaded
+    public static synchronized void setIdleTimeout(long timeoutMs) {
+        idleTimeoutMs = timeoutMs;
+    }
+
+    // Unloads every engine that is currently not referenced
+    public static void evictIdle() {
+        List<Entry> evicted;
+        synchronized (ModelRegistry.class) {
+            evicted = removeIdleEntries();
+        }
+        deinitialize(evicted);
+    }
+
+    private static void release(Entry entry) {
+        entry.refCount--;
+        Log.d(TAG, "Released model " + entry.key + ", references: " + entry.refCount);
+        if (entry.refCount > 0 || entries.get(entry.key) != entry) {
+            return;
+        }
+        if (idleTimeoutMs <= 0) {
+            entries.remove(entry.key);
+            getEvictionExecutor().execute(entry.engine::deinitialize);
+            return;
+        }
+        entry.eviction = getEvictionExecutor().schedule(() -> evictIfIdle(entry),
+                idleTimeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    private static void evictIfIdle(Entry entry) {
+        synchronized (ModelRegistry.class) {
+            if (entry.refCount > 0 || entries.get(entry.key) != entry) {
+                return;
+            }
+            entries.remove(entry.key);
+            entry.eviction = null;
+        }
+        Log.d(TAG, "Unloading idle model " + entry.key);
+        entry.engine.deinitialize();
+    }
+
+    private static List<Entry> removeIdleEntries() {
+        List<Entry> evicted = new ArrayList<>();
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.refCount == 0) {
+                cancelEviction(entry);
+                iterator.remove();
+                evicted.add(entry);
+            }
+        }
+        return evicted;
+    }
+
+    private static void deinitialize(List<Entry> evicted) {
+        for (Entry entry : evicted) {
+            Log.d(TAG, "Unloading idle model " + entry.key);
+            entry.engine.deinitialize();
+        }
+    }
+
+    private static void cancelEviction(Entry entry) {
+        if (entry.eviction != null) {
+            entry.eviction.cancel(false);
+            entry.eviction = null;
+        }
+    }
+
+    private static ScheduledThreadPoolExecutor getEvictionExecutor() {
+        if (evictionExecutor == null) {
+            evictionExecutor = new ScheduledThreadPoolExecutor(1, runnable -> {
+                Thread thread = new Thread(runnable, "ModelEviction");
+                thread.setDaemon(true);
+                return thread;
+            });
+            evictionExecutor.setRemoveOnCancelPolicy(true);
+        }
+        return evictionExecutor;
+    }
+
+    // Idle engines are dropped when memory runs low, also while the app is in the background
+    private static void registerTrimCallbacks(Context context) {
+        if (trimCallbacksRegistered) {
+            return;
+        }
+        trimCallbacksRegistered = true;
+        context.getApplicationContext().registerComponentCallbacks(new ComponentCallbacks2() {
+            @Override
+            public void onTrimMemory(int level) {
+                if (level >= TRIM_MEMORY_RUNNING_LOW && level != TRIM_MEMORY_UI_HIDDEN) {
+                    Log.d(TAG, "onTrimMemory " + level + ", unloading idle models");
+                    evictIdle();
+                }
+            }
+
+            @Override
+            public void onConfigurationChanged(Configuration newConfig) {
+            }
+
+            @Override
+            public void onLowMemory() {
+                evictIdle();
+            }
+        });
+    }
+}
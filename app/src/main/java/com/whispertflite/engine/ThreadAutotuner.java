@@ -0,0 +1,266 @@
+package com.whispertflite.engine;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.util.Log;
+
+import org.tensorflow.lite.Interpreter;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+// Picks the interpreter thread count per model file and device. Using every core is often
+// slower on big.LITTLE SoCs, the large model then waits for the efficiency cores, so a few
+// counts are measured on a fixed silent input and the fastest one is stored.
+// Tuning takes minutes for the large model, an engine loading meanwhile does not wait for it
+// and uses all cores until the profile is stored. The tuner measures only while no engine of
+// ModelRegistry is in use: it waits for them to be released and aborts the running
+// measurement when one is acquired, so two copies of the model never share cores and memory.
+public final class ThreadAutotuner {
+    private static final String TAG = "ThreadAutotuner";
+    private static final String PREFS_NAME = "thread_profile";
+    // Median of these, a single run varies with the SoC temperature
+    private static final int TIMED_RUNS = 3;
+
+    private static final Object tuneLock = new Object();
+    private static volatile String tuningModelPath = null;
+    private static volatile Interpreter measuringInterpreter = null;
+    private static volatile boolean measurementAborted = false;
+    // How often a paused tuning checks whether the engines were released
+    private static final long IDLE_POLL_MS = 1000;
+
+    // Value of the normalized mel spectrogram of silence
+    private static final float SILENCE_MEL = -1.5f;
+
+    private ThreadAutotuner() {
+    }
+
+    // Tuned thread count for the model, all cores if it was not tuned yet or is being tuned
+    public static int getNumThreads(Context context, String modelPath) {
+        if (modelPath.equals(tuningModelPath)) {
+            Log.d(TAG, "Tuning in progress, using all cores");
+            return Runtime.getRuntime().availableProcessors();
+        }
+        int numThreads = getPrefs(context).getInt(profileKey(modelPath) + ".best", 0);
+        if (numThreads <= 0) {
+            return Runtime.getRuntime().availableProcessors();
+        }
+        Log.d(TAG, "Using " + numThreads + " threads, profile " + getProfileTable(context, modelPath));
+        return numThreads;
+    }
+
+    // Measured median inference time in ms per thread count, e.g. "2=9120,4=6310,8=7480",
+    // empty if the model was not tuned on this device
+    public static String getProfileTable(Context context, String modelPath) {
+        return getPrefs(context).getString(profileKey(modelPath) + ".table", "");
+    }
+
+    public static void clearProfile(Context context, String modelPath) {
+        String key = profileKey(modelPath);
+        getPrefs(context).edit().remove(key + ".best").remove(key + ".table").apply();
+    }
+
+    public static boolean isTuning(String modelPath) {
+        return modelPath.equals(tuningModelPath);
+    }
+
+    public static boolean isTuned(Context context, String modelPath) {
+        return getPrefs(context).contains(profileKey(modelPath) + ".best");
+    }
+
+    // Tunes on a background thread, e.g. right after the model was downloaded
+    public static void tuneAsync(Context context, String modelPath) {
+        Context appContext = context.getApplicationContext();
+        Thread thread = new Thread(() -> {
+            try {
+                tune(appContext, modelPath);
+            } catch (IOException e) {
+                Log.e(TAG, "Thread tuning failed", e);
+            }
+        }, "ThreadAutotune");
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    // Measures every candidate thread count, stores and returns the table (ms per count).
+    // This runs the model a few times and takes minutes for the large model.
+    public static Map<Integer, Long> tune(Context context, String modelPath) throws IOException {
+        synchronized (tuneLock) {
+            tuningModelPath = modelPath;
+            try {
+                return tuneLocked(context, modelPath);
+            } finally {
+                tuningModelPath = null;
+            }
+        }
+    }
+
+    private static Map<Integer, Long> tuneLocked(Context context, String modelPath) throws IOException {
+        ByteBuffer model;
+        try (FileInputStream fileInputStream = new FileInputStream(modelPath);
+             FileChannel fileChannel = fileInputStream.getChannel()) {
+            model = fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, fileChannel.size());
+        }
+
+        Map<Integer, Long> table = new LinkedHashMap<>();
+        int best = -1;
+        ModelRegistry.setUseListener(ThreadAutotuner::abortMeasurement);
+        try {
+            for (int numThreads : getCandidates()) {
+                long millis = measureUnused(model, numThreads);
+                table.put(numThreads, millis);
+                Log.d(TAG, numThreads + " threads: " + millis + " ms");
+                if (best == -1 || millis < table.get(best)) {
+                    best = numThreads;
+                }
+            }
+        } finally {
+            ModelRegistry.setUseListener(null);
+        }
+
+        StringBuilder tableText = new StringBuilder();
+        for (Map.Entry<Integer, Long> entry : table.entrySet()) {
+            if (tableText.length() > 0) tableText.append(',');
+            tableText.append(entry.getKey()).append('=').append(entry.getValue());
+        }
+        String key = profileKey(modelPath);
+        getPrefs(context).edit()
+                .putInt(key + ".best", best)
+                .putString(key + ".table", tableText.toString())
+                .apply();
+        Log.d(TAG, "Tuned " + modelPath + ": " + best + " threads (" + tableText + ")");
+        return Collections.unmodifiableMap(table);
+    }
+
+    // Measures numThreads while no engine is in use, again if one was used meanwhile
+    private static long measureUnused(ByteBuffer model, int numThreads) throws IOException {
+        while (true) {
+            try {
+                while (ModelRegistry.isInUse()) {
+                    Thread.sleep(IDLE_POLL_MS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting to tune", e);
+            }
+            // A released engine stays cached for a while, do not measure next to it
+            ModelRegistry.evictIdle();
+            int useCount = ModelRegistry.getUseCount();
+            long millis = measure(model, numThreads, useCount);
+            if (millis >= 0 && useCount == ModelRegistry.getUseCount()) {
+                return millis;
+            }
+            Log.d(TAG, "Model used while measuring " + numThreads + " threads, measuring again later");
+        }
+    }
+
+    // Called by ModelRegistry on acquire, stops the running inference of measure()
+    private static void abortMeasurement() {
+        measurementAborted = true;
+        Interpreter interpreter = measuringInterpreter;
+        if (interpreter != null) {
+            interpreter.setCancelled(true);
+        }
+    }
+
+    // One untimed run for the one-time costs, then the median of the timed runs. Returns -1
+    // if an engine was acquired since useCount was read.
+    private static long measure(ByteBuffer model, int numThreads, int useCount) {
+        Interpreter.Options options = new Interpreter.Options();
+        options.setNumThreads(numThreads);
+        options.setCancellable(true);
+        measurementAborted = false;
+        Interpreter interpreter = new Interpreter(model, options);
+        measuringInterpreter = interpreter;
+        try {
+            if (useCount != ModelRegistry.getUseCount()) {
+                return -1;
+            }
+            int[] inputShape = interpreter.getInputTensor(0).shape();
+            ByteBuffer input = ByteBuffer.allocateDirect(inputShape[0] * inputShape[1] * inputShape[2] * Float.BYTES);
+            input.order(ByteOrder.nativeOrder());
+            FloatBuffer mel = input.asFloatBuffer();
+            while (mel.hasRemaining()) {
+                mel.put(SILENCE_MEL);
+            }
+
+            String signatureKey = Arrays.asList(interpreter.getSignatureKeys()).contains(WhisperEngineJava.SIGNATURE_TRANSCRIBE)
+                    ? WhisperEngineJava.SIGNATURE_TRANSCRIBE : WhisperEngineJava.SIGNATURE_DEFAULT;
+            InferencePlan plan = new InferencePlan(interpreter, signatureKey, input);
+            plan.run(interpreter, -1);
+
+            long[] millis = new long[TIMED_RUNS];
+            for (int i = 0; i < TIMED_RUNS; i++) {
+                long startTime = System.nanoTime();
+                plan.run(interpreter, -1);
+                millis[i] = (System.nanoTime() - startTime) / 1000000;
+            }
+            Arrays.sort(millis);
+            return millis[TIMED_RUNS / 2];
+        } catch (RuntimeException e) {
+            if (measurementAborted) {
+                return -1;
+            }
+            throw e;
+        } finally {
+            measuringInterpreter = null;
+            interpreter.close();
+        }
+    }
+
+    // 2 and 4 threads, the number of fast cores and all cores
+    static List<Integer> getCandidates() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        TreeSet<Integer> candidates = new TreeSet<>();
+        candidates.add(Math.min(2, cores));
+        candidates.add(Math.min(4, cores));
+        candidates.add(getFastCoreCount(cores));
+        candidates.add(cores);
+        return new ArrayList<>(candidates);
+    }
+
+    // Cores whose maximum frequency is above that of the slowest cluster, all if unknown
+    private static int getFastCoreCount(int cores) {
+        long[] maxFreq = new long[cores];
+        long slowest = Long.MAX_VALUE;
+        for (int i = 0; i < cores; i++) {
+            File file = new File("/sys/devices/system/cpu/cpu" + i + "/cpufreq/cpuinfo_max_freq");
+            try {
+                maxFreq[i] = Long.parseLong(new String(Files.readAllBytes(file.toPath()), StandardCharsets.US_ASCII).trim());
+            } catch (IOException | NumberFormatException e) {
+                return cores;
+            }
+            slowest = Math.min(slowest, maxFreq[i]);
+        }
+        int fast = 0;
+        for (long freq : maxFreq) {
+            if (freq > slowest) fast++;
+        }
+        return fast > 0 ? fast : cores;
+    }
+
+    // Same model file on the same device, a changed file needs tuning again
+    private static String profileKey(String modelPath) {
+        File file = new File(modelPath);
+        return file.getName() + ":" + file.length() + ":" + Build.MODEL;
+    }
+
+    private static SharedPreferences getPrefs(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+}
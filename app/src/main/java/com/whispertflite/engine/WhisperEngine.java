@@ -1,7 +1,8 @@
 package com.whispertflite.engine;
 
-import com.whispertflite.asr.Whisper;
+import com.whispertflite.asr.TranscriptionRequest;
 import com.whispertflite.asr.WhisperResult;
+import com.whispertflite.utils.CancellationToken;
 
 import java.io.IOException;
 
@@ -9,5 +10,7 @@ public interface WhisperEngine {
     boolean isInitialized();
     void initialize(String modelPath, String vocabPath, boolean multilingual) throws IOException;
     void deinitialize();
-    WhisperResult processRecordBuffer(Whisper.Action mAction, int mLangToken);
+    // Transcribes the request's audio. Throws CancellationException once token is cancelled,
+    // the running stage is aborted.
+    WhisperResult processRequest(TranscriptionRequest request, CancellationToken token);
 }
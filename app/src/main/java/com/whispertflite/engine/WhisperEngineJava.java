@@ -3,37 +3,68 @@ package com.whispertflite.engine;
 import android.content.Context;
 import android.util.Log;
 
+import androidx.preference.PreferenceManager;
+
 import com.whispertflite.asr.RecordBuffer;
+import com.whispertflite.asr.TranscriptionRequest;
 import com.whispertflite.asr.Whisper;
 import com.whispertflite.asr.WhisperResult;
+import com.whispertflite.utils.CancellationToken;
 import com.whispertflite.utils.InputLang;
+import com.whispertflite.utils.ModelCatalog;
+import com.whispertflite.utils.TokenDecoder;
+import com.whispertflite.utils.TranscriptionArena;
+import com.whispertflite.utils.WhisperMelStream;
 import com.whispertflite.utils.WhisperUtil;
+import com.whispertflite.utils.WhisperVocabCompiler;
 
-import org.tensorflow.lite.DataType;
 import org.tensorflow.lite.Interpreter;
-import org.tensorflow.lite.Tensor;
-import org.tensorflow.lite.support.tensorbuffer.TensorBuffer;
 
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.IntBuffer;
+import java.nio.FloatBuffer;
 import java.nio.channels.FileChannel;
-import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class WhisperEngineJava implements WhisperEngine {
     private final String TAG = "WhisperEngineJava";
+
+    static final String SIGNATURE_DEFAULT = "serving_default";
+    static final String SIGNATURE_TRANSLATE = "serving_translate";
+    static final String SIGNATURE_TRANSCRIBE = "serving_transcribe";
+    static final String SIGNATURE_TRANSCRIBE_LANG = "serving_transcribe_lang";
+
     private final WhisperUtil mWhisperUtil = new WhisperUtil();
+    private final WhisperMelStream mMelStream = mWhisperUtil.createMelStream();
+    private final TokenDecoder mTokenDecoder = new TokenDecoder(mWhisperUtil);
 
     private final Context mContext;
-    private boolean mIsInitialized = false;
+    private volatile boolean mIsInitialized = false;
+    private volatile long mWarmUpMillis = -1;
+    private volatile long mLastInferenceMillis = -1;
     private Interpreter mInterpreter = null;
+    private String mModelPath = null;
+    private TranscriptionArena mArena = null;
+    // Held for each inference. Fair, so a request waiting while the warm-up runs goes next
+    // instead of the warm-up's following run.
+    private final ReentrantLock mRunLock = new ReentrantLock(true);
+
+    // Resolved in loadModel, see createInferencePlans(). One plan per audio window length
+    // the model offers for the task, sorted from the shortest window. mDefaultPlans is null
+    // if the model has no serving_default signature.
+    private InferencePlan[] mDefaultPlans = null;
+    private InferencePlan[] mTranslatePlans = null;
+    private InferencePlan[] mTranscribePlans = null;
+    private InferencePlan[] mTranscribeLangPlans = null;
 
     public WhisperEngineJava(Context context) {
         mContext = context;
@@ -46,15 +77,36 @@ public class WhisperEngineJava implements WhisperEngine {
 
     @Override
     public void initialize(String modelPath, String vocabPath, boolean multilingual) throws IOException {
+        // Load filters and vocab, from the compiled copy after the first load, while the
+        // interpreter is built on this thread
+        FutureTask<Boolean> vocabTask = new FutureTask<>(
+                () -> WhisperVocabCompiler.load(mWhisperUtil, multilingual, vocabPath));
+        new Thread(vocabTask, "WhisperVocabLoad").start();
+
         // Load model
         loadModel(modelPath);
         Log.d(TAG, "Model is loaded..." + modelPath);
 
-        // Load filters and vocab
-        boolean ret = mWhisperUtil.loadFiltersAndVocab(multilingual, vocabPath);
+        boolean ret;
+        try {
+            ret = vocabTask.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading " + vocabPath, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Failed to load " + vocabPath, e.getCause());
+        }
         if (ret) {
             mIsInitialized = true;
+            RecordBuffer.setMelStream(mMelStream);
             Log.d(TAG, "Filters and Vocab are loaded..." + vocabPath);
+
+            if (PreferenceManager.getDefaultSharedPreferences(mContext).getBoolean("warmUp", true)) {
+                startWarmUp();
+            }
         } else {
             mIsInitialized = false;
             Log.d(TAG, "Failed to load Filters and Vocab...");
@@ -65,156 +117,264 @@ public class WhisperEngineJava implements WhisperEngine {
     // Unload the model by closing the interpreter
     @Override
     public void deinitialize() {
-        if (mInterpreter != null) {
-            mInterpreter.setCancelled(true);
-            mInterpreter.close();
-            mInterpreter = null; // Optional: Set to null to avoid accidental reuse
+        if (RecordBuffer.getMelStream() == mMelStream) {
+            RecordBuffer.setMelStream(null);
+        }
+
+        // Abort a running warm-up, then wait for it to leave the interpreter
+        Interpreter interpreter = mInterpreter;
+        if (interpreter != null) {
+            interpreter.setCancelled(true);
+        }
+        mRunLock.lock();
+        try {
+            mIsInitialized = false;
+            if (mInterpreter != null) {
+                mInterpreter.close();
+                mInterpreter = null; // Optional: Set to null to avoid accidental reuse
+            }
+            mDefaultPlans = null;
+            mTranslatePlans = null;
+            mTranscribePlans = null;
+            mTranscribeLangPlans = null;
+        } finally {
+            mRunLock.unlock();
         }
     }
 
     @Override
-    public WhisperResult processRecordBuffer(Whisper.Action mAction, int mLangToken) {
-        // Calculate Mel spectrogram
+    public WhisperResult processRequest(TranscriptionRequest request, CancellationToken token) {
+        mRunLock.lock();
+        try {
+            return processRequestLocked(request, token);
+        } finally {
+            mRunLock.unlock();
+        }
+    }
+
+    private WhisperResult processRequestLocked(TranscriptionRequest request, CancellationToken token) {
+        token.throwIfCancelled();
+        Whisper.Action mAction = request.getAction();
+        int mLangToken = request.getLangToken();
+
+        // Smallest audio window of the task that holds the recording
+        int fixedInputSize = WhisperUtil.WHISPER_SAMPLE_RATE * WhisperUtil.WHISPER_CHUNK_SIZE;
+        int recordedSamples = Math.min(request.getSampleCount(), fixedInputSize);
+        int recordedFrames = (recordedSamples + WhisperUtil.WHISPER_HOP_LENGTH - 1) / WhisperUtil.WHISPER_HOP_LENGTH;
+        InferencePlan plan = InferencePlan.selectBucket(selectPlans(mAction, mLangToken), recordedFrames);
+        Log.d(TAG, "Using " + plan.signatureKey + " (" + plan.inputFrames + " frames) for " + recordedFrames + " frames");
+
+        // Calculate Mel spectrogram straight into the input tensor buffer
         Log.d(TAG, "Calculating Mel spectrogram...");
-        float[] melSpectrogram = getMelSpectrogram();
+        plan.inputBuffer.clear();
+        getMelSpectrogram(request, plan.inputBuffer.asFloatBuffer(), recordedSamples, plan.inputFrames, token);
         Log.d(TAG, "Mel spectrogram is calculated...!");
 
         // Perform inference
-        WhisperResult whisperResult = runInference(melSpectrogram, mAction, mLangToken);
-        Log.d(TAG, "Inference is executed...!");
+        long startTime = System.nanoTime();
+        WhisperResult whisperResult = runInference(plan, mAction, mLangToken, token);
+        mLastInferenceMillis = (System.nanoTime() - startTime) / 1000000;
+        Log.d(TAG, "Inference is executed...! " + mLastInferenceMillis + " ms, "
+                + (mWarmUpMillis >= 0 ? "warmed up in " + mWarmUpMillis + " ms" : "no warm-up"));
+
+        // Only speech decodes a realistic number of tokens, see ModelCatalog.getRtf()
+        if (!whisperResult.getResult().trim().isEmpty()) {
+            long windowMillis = plan.inputFrames * WhisperUtil.WHISPER_HOP_LENGTH * 1000L / WhisperUtil.WHISPER_SAMPLE_RATE;
+            ModelCatalog.recordRtf(mContext, mModelPath, mLastInferenceMillis / (float) windowMillis);
+        }
 
         return whisperResult;
     }
 
+    // Duration of the warm-up inference in ms, -1 if it did not run (yet)
+    public long getWarmUpMillis() {
+        return mWarmUpMillis;
+    }
+
+    // Duration of the last inference in ms, -1 before the first request
+    public long getLastInferenceMillis() {
+        return mLastInferenceMillis;
+    }
+
+    // The first inference of a new interpreter packs the weights for XNNPACK, allocates
+    // the tensor arena and faults in the mapped model, and the first run of each audio window
+    // prepares its subgraph. Run every window of the plans the saved language selects on
+    // silence in the background, the shortest first: push-to-talk requests mostly use it,
+    // windows of a continuous dictation the longer ones. The run lock is taken per run and is
+    // fair, so a request arriving early waits for one run at most.
+    private void startWarmUp() {
+        mWarmUpMillis = -1;
+        int langToken = InputLang.getIdForLanguage(
+                PreferenceManager.getDefaultSharedPreferences(mContext).getString("language", "auto"));
+        Thread warmUpThread = new Thread(() -> {
+            InferencePlan[] plans = selectPlans(Whisper.ACTION_TRANSCRIBE, langToken);
+            if (plans == null) {
+                return;
+            }
+            long startTime = System.nanoTime();
+            for (InferencePlan plan : plans) {
+                mRunLock.lock();
+                try {
+                    if (mInterpreter == null) {
+                        return;
+                    }
+                    // No recorded samples: every mel frame is padding
+                    plan.inputBuffer.clear();
+                    mWhisperUtil.getMelSpectrogram(mArena.samples, 0,
+                            plan.inputFrames * WhisperUtil.WHISPER_HOP_LENGTH, 1,
+                            plan.inputBuffer.asFloatBuffer());
+                    plan.run(mInterpreter, langToken);
+                } catch (Exception e) {
+                    Log.d(TAG, "Warm-up inference aborted: " + e.getMessage());
+                    return;
+                } finally {
+                    mRunLock.unlock();
+                }
+                Log.d(TAG, "Warmed up " + plan.signatureKey);
+            }
+            mWarmUpMillis = (System.nanoTime() - startTime) / 1000000;
+            Log.d(TAG, "Warm-up inference took " + mWarmUpMillis + " ms");
+        }, "WhisperWarmUp");
+        warmUpThread.setDaemon(true);
+        warmUpThread.start();
+    }
+
 
     // Load TFLite model
     private void loadModel(String modelPath) throws IOException {
+        mModelPath = modelPath;
         FileInputStream fileInputStream = new FileInputStream(modelPath);
         FileChannel fileChannel = fileInputStream.getChannel();
         long startOffset = 0;
         long declaredLength = fileChannel.size();
         ByteBuffer tfliteModel = fileChannel.map(FileChannel.MapMode.READ_ONLY, startOffset, declaredLength);
 
-        // Set the number of threads for inference
+        // Set the number of threads for inference, as tuned for this model and device
         Interpreter.Options options = new Interpreter.Options();
-        options.setNumThreads(Runtime.getRuntime().availableProcessors());
+        options.setNumThreads(ThreadAutotuner.getNumThreads(mContext, modelPath));
         options.setCancellable(true);
 
         mInterpreter = new Interpreter(tfliteModel, options);
+
+        // Buffers for the largest request, reused for every transcription. The input tensor
+        // buffer is what the mel spectrogram is written into, the plans use views of it.
+        int inputSize = mInterpreter.getInputTensor(0).numBytes();
+        for (String key : mInterpreter.getSignatureKeys()) {
+            inputSize = Math.max(inputSize, InferencePlan.getInputBytes(mInterpreter, key));
+        }
+        mArena = new TranscriptionArena(inputSize);
+        mWhisperUtil.reserveMelBuffers(TranscriptionArena.MAX_SAMPLES);
+
+        createInferencePlans();
     }
 
-    private float[] getMelSpectrogram() {
-        // Get samples in PCM_FLOAT format
-        float[] samples = RecordBuffer.getSamples();
+    // Mel spectrogram of the recording, padded to nFrames
+    private void getMelSpectrogram(TranscriptionRequest request, FloatBuffer melBuffer, int recordedSamples,
+                                   int nFrames, CancellationToken token) {
+        // Use the frames computed during capture if the stream still holds this recording
+        if (request.getMelStream() == mMelStream && mMelStream != null
+                && mMelStream.finish(melBuffer, nFrames, request.getMelStreamGeneration(), recordedSamples)) {
+            Log.d(TAG, "Used streamed mel frames...");
+            return;
+        }
 
-        int fixedInputSize = WhisperUtil.WHISPER_SAMPLE_RATE * WhisperUtil.WHISPER_CHUNK_SIZE;
-        float[] inputSamples = new float[fixedInputSize];
-        int copyLength = Math.min(samples.length, fixedInputSize);
-        System.arraycopy(samples, 0, inputSamples, 0, copyLength);
+        // Get samples in PCM_FLOAT format
+        float[] samples = mArena.samples;
+        request.getSamples(samples);
 
+        // Samples past the recording are zero padding up to the input window
         int cores = Runtime.getRuntime().availableProcessors();
-        return mWhisperUtil.getMelSpectrogram(inputSamples, inputSamples.length, cores);
+        mWhisperUtil.getMelSpectrogram(samples, recordedSamples, nFrames * WhisperUtil.WHISPER_HOP_LENGTH,
+                cores, melBuffer, token);
     }
 
-    private WhisperResult runInference(float[] inputData, Whisper.Action mAction, int mLangToken) {
-        Log.d("Whisper","Signatures "+ Arrays.toString(mInterpreter.getSignatureKeys()));
-
-        // Create input tensor
-        Tensor inputTensor = mInterpreter.getInputTensor(0);
-
-        // Create output tensor
-        Tensor outputTensor = mInterpreter.getOutputTensor(0);
-        TensorBuffer outputBuffer = TensorBuffer.createFixedSize(outputTensor.shape(), DataType.FLOAT32);
+    // Signatures by task, as in the converted models, serving_default is the fallback.
+    // A model may add shorter audio windows of a signature as "<key>_<seconds>s" (for example
+    // serving_transcribe_5s with a [1, 80, 500] input), the shortest one that fits is used.
+    private void createInferencePlans() {
+        List<String> signatureKeys = Arrays.asList(mInterpreter.getSignatureKeys());
+        Log.d(TAG, "Signatures " + signatureKeys);
+        String translateKey = signatureKeys.contains(SIGNATURE_TRANSLATE) ? SIGNATURE_TRANSLATE : SIGNATURE_DEFAULT;
+        String transcribeKey = signatureKeys.contains(SIGNATURE_TRANSCRIBE) ? SIGNATURE_TRANSCRIBE : SIGNATURE_DEFAULT;
+        String transcribeLangKey = signatureKeys.contains(SIGNATURE_TRANSCRIBE_LANG) ? SIGNATURE_TRANSCRIBE_LANG : transcribeKey;
+
+        // One plan per signature, the same signature may serve several tasks. A model with
+        // all task signatures need not export serving_default.
+        Map<String, InferencePlan[]> plans = new HashMap<>();
+        for (String key : new String[]{translateKey, transcribeKey, transcribeLangKey}) {
+            if (!plans.containsKey(key)) {
+                plans.put(key, createBucketPlans(signatureKeys, key));
+            }
+        }
+        if (!plans.containsKey(SIGNATURE_DEFAULT) && signatureKeys.contains(SIGNATURE_DEFAULT)) {
+            plans.put(SIGNATURE_DEFAULT, createBucketPlans(signatureKeys, SIGNATURE_DEFAULT));
+        }
+        mDefaultPlans = plans.get(SIGNATURE_DEFAULT);
+        mTranslatePlans = plans.get(translateKey);
+        mTranscribePlans = plans.get(transcribeKey);
+        mTranscribeLangPlans = plans.get(transcribeLangKey);
+    }
 
-        // Load input data
-        int inputSize = inputTensor.shape()[0] * inputTensor.shape()[1] * inputTensor.shape()[2] * Float.BYTES;
-        ByteBuffer inputBuffer = ByteBuffer.allocateDirect(inputSize);
-        inputBuffer.order(ByteOrder.nativeOrder());
-        for (float input : inputData) {
-            inputBuffer.putFloat(input);
+    // Plans of key and its shorter window variants, sorted by window length
+    private InferencePlan[] createBucketPlans(List<String> signatureKeys, String key) {
+        List<InferencePlan> plans = new ArrayList<>();
+        plans.add(new InferencePlan(mInterpreter, key, mArena.input));
+        for (String bucketKey : signatureKeys) {
+            if (bucketKey.startsWith(key + "_") && bucketKey.substring(key.length() + 1).matches("[0-9]+s")) {
+                plans.add(new InferencePlan(mInterpreter, bucketKey, mArena.input));
+            }
         }
+        Collections.sort(plans, (a, b) -> Integer.compare(a.inputFrames, b.inputFrames));
+        if (plans.size() > 1) {
+            StringBuilder buckets = new StringBuilder();
+            for (InferencePlan plan : plans) {
+                buckets.append(' ').append(plan.signatureKey).append('=').append(plan.inputFrames);
+            }
+            Log.d(TAG, "Audio windows of " + key + ":" + buckets);
+        }
+        return plans.toArray(new InferencePlan[0]);
+    }
 
-        String signature_key = "serving_default";
+    private InferencePlan[] selectPlans(Whisper.Action mAction, int mLangToken) {
         if (mAction == Whisper.Action.TRANSLATE) {
-            if (Arrays.asList(mInterpreter.getSignatureKeys()).contains("serving_translate")) signature_key = "serving_translate";
+            return mTranslatePlans;
         } else if (mAction == Whisper.ACTION_TRANSCRIBE) {
-            if (Arrays.asList(mInterpreter.getSignatureKeys()).contains("serving_transcribe_lang") && mLangToken != -1) signature_key = "serving_transcribe_lang";
-            else if (Arrays.asList(mInterpreter.getSignatureKeys()).contains("serving_transcribe")) signature_key = "serving_transcribe";
+            return mLangToken != -1 ? mTranscribeLangPlans : mTranscribePlans;
         }
+        return mDefaultPlans != null ? mDefaultPlans : mTranscribePlans;
+    }
 
-        Map<String, Object> inputsMap = new HashMap<>();
-        String[] inputs = mInterpreter.getSignatureInputs(signature_key);
-        inputsMap.put(inputs[0], inputBuffer);
-        if (signature_key.equals("serving_transcribe_lang")) {
+    private WhisperResult runInference(InferencePlan plan, Whisper.Action mAction, int mLangToken,
+                                       CancellationToken token) {
+        if (plan.usesLangToken) {
             Log.d(TAG,"Serving_transcribe_lang " + mLangToken);
-            IntBuffer langTokenBuffer = IntBuffer.allocate(1);
-            langTokenBuffer.put(mLangToken);
-            langTokenBuffer.rewind();
-            inputsMap.put(inputs[1], langTokenBuffer);
         }
 
-        Map<String, Object> outputsMap = new HashMap<>();
-        String[] outputs = mInterpreter.getSignatureOutputs(signature_key);
-        outputsMap.put(outputs[0], outputBuffer.getBuffer());
-
-        // Run inference
+        // Run inference, cancelling the token stops the interpreter between two ops
+        Interpreter interpreter = mInterpreter;
+        token.setOnCancelListener(() -> interpreter.setCancelled(true));
         try {
-            mInterpreter.runSignature(inputsMap, outputsMap, signature_key);
+            plan.run(interpreter, mLangToken);
         } catch (Exception e) {
+            token.throwIfCancelled();
             return new WhisperResult("", "", mAction);
+        } finally {
+            token.setOnCancelListener(null);
+            interpreter.setCancelled(false);
         }
 
-        // Retrieve the results
-        ArrayList<InputLang> inputLangList = InputLang.getLangList();
-        String language = "";
-        Whisper.Action task = null;
-        int outputLen = outputBuffer.getIntArray().length;
-        Log.d(TAG, "output_len: " + outputLen);
-        List<byte[]> resultArray = new ArrayList<>();
-        for (int i = 0; i < outputLen; i++) {
-            int token = outputBuffer.getBuffer().getInt();
-            if (token == mWhisperUtil.getTokenEOT())
-                break;
-
-            // Get word for token and Skip additional token
-            if (token < mWhisperUtil.getTokenEOT()) {
-                byte[] wordBytes = mWhisperUtil.getWordFromToken(token);
-                resultArray.add(wordBytes);
-            } else {
-                if (token == mWhisperUtil.getTokenTranscribe()){
-                    Log.d(TAG, "It is Transcription...");
-                    task = Whisper.Action.TRANSCRIBE;
-                }
-
-                if (token == mWhisperUtil.getTokenTranslate()){
-                    Log.d(TAG, "It is Translation...");
-                    task = Whisper.Action.TRANSLATE;
-                }
+        // Retrieve the results, the decoder reads the token ids straight from the output buffer
+        Log.d(TAG, "output_len: " + plan.outputLength);
+        String text = mTokenDecoder.decode(plan.outputBuffer, plan.outputLength);
 
-                if (token >= 50259 && token <= 50357){
-                    language = InputLang.getLanguageCodeById(inputLangList, token);
-                    Log.d(TAG, "Detected language code: "+ language);
-                }
-                byte[] wordBytes = mWhisperUtil.getWordFromToken(token);
-                Log.d(TAG, "Skipping token: " + token + ", word: " + new String(wordBytes, StandardCharsets.UTF_8));
-            }
-        }
-
-        // Calculate the total length of the combined byte array
-        int totalLength = 0;
-        for (byte[] byteArray : resultArray) {
-            totalLength += byteArray.length;
-        }
-
-        // Combine the byte arrays into a single byte array
-        byte[] combinedBytes = new byte[totalLength];
-        int offset = 0;
-        for (byte[] byteArray : resultArray) {
-            System.arraycopy(byteArray, 0, combinedBytes, offset, byteArray.length);
-            offset += byteArray.length;
+        Whisper.Action task = null;
+        if (mTokenDecoder.getTaskToken() == mWhisperUtil.getTokenTranscribe()) {
+            task = Whisper.Action.TRANSCRIBE;
+        } else if (mTokenDecoder.getTaskToken() == mWhisperUtil.getTokenTranslate()) {
+            task = Whisper.Action.TRANSLATE;
         }
 
-        return new WhisperResult(new String(combinedBytes, StandardCharsets.UTF_8), language, task);
+        return new WhisperResult(text, mTokenDecoder.getLanguage(), task);
     }
 
 }
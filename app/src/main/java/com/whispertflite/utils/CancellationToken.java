@@ -0,0 +1,103 @@
+package com.whispertflite.utils;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// Cancels one transcription, either on request or when its deadline passes. The stage that
+// is running polls isCancelled() or registers a listener that aborts it, like the engine
+// does with Interpreter.setCancelled(). Stages give up by throwing CancellationException.
+public class CancellationToken {
+
+    // Never cancelled, for callers without a request
+    public static final CancellationToken NONE = new CancellationToken(0);
+
+    private static ScheduledThreadPoolExecutor deadlineExecutor;
+
+    private volatile boolean cancelled = false;
+    private volatile boolean timedOut = false;
+    private Runnable onCancelListener;
+    private ScheduledFuture<?> deadline;
+
+    // timeoutMs <= 0 for no deadline
+    public CancellationToken(long timeoutMs) {
+        startDeadline(timeoutMs);
+    }
+
+    // Starts the deadline now, for a token created without one, e.g. a queued transcription
+    // that is only held to its deadline once it runs. timeoutMs <= 0 for no deadline, a
+    // deadline that is already running is kept.
+    public synchronized void startDeadline(long timeoutMs) {
+        if (timeoutMs > 0 && deadline == null && !cancelled) {
+            deadline = getDeadlineExecutor().schedule(this::timeout, timeoutMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public void cancel() {
+        cancel(false);
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    // Cancelled because the deadline passed
+    public boolean isTimedOut() {
+        return timedOut;
+    }
+
+    public void throwIfCancelled() {
+        if (cancelled) {
+            throw new CancellationException(timedOut ? "Transcription timed out" : "Transcription cancelled");
+        }
+    }
+
+    // Runs listener on cancellation, right away if already cancelled, null removes it.
+    // It is called with the token locked: once this returns with null it will not run anymore.
+    public synchronized void setOnCancelListener(Runnable listener) {
+        onCancelListener = listener;
+        if (cancelled && listener != null) {
+            listener.run();
+        }
+    }
+
+    // The transcription finished, its deadline does not matter anymore
+    public synchronized void finish() {
+        if (deadline != null) {
+            deadline.cancel(false);
+            deadline = null;
+        }
+    }
+
+    private void timeout() {
+        cancel(true);
+    }
+
+    private synchronized void cancel(boolean byDeadline) {
+        if (cancelled || this == NONE) {
+            return;
+        }
+        timedOut = byDeadline;
+        cancelled = true;
+        if (onCancelListener != null) {
+            onCancelListener.run();
+        }
+        if (deadline != null && !byDeadline) {
+            deadline.cancel(false);
+        }
+        deadline = null;
+    }
+
+    private static synchronized ScheduledThreadPoolExecutor getDeadlineExecutor() {
+        if (deadlineExecutor == null) {
+            deadlineExecutor = new ScheduledThreadPoolExecutor(1, runnable -> {
+                Thread thread = new Thread(runnable, "TranscriptionDeadline");
+                thread.setDaemon(true);
+                return thread;
+            });
+            deadlineExecutor.setRemoveOnCancelPolicy(true);
+        }
+        return deadlineExecutor;
+    }
+}
@@ -12,6 +12,7 @@ import androidx.preference.PreferenceManager;
 
 import com.whispertflite.R;
 import com.whispertflite.databinding.ActivityDownloadBinding;
+import com.whispertflite.engine.ThreadAutotuner;
 
 import java.io.BufferedInputStream;
 import java.io.File;
@@ -30,24 +31,27 @@ import java.security.NoSuchAlgorithmException;
 public class Downloader {
     private static final String TAG = "Downloader";
 
-    // Only large Whisper model
-    static final String modelName = "whisper-large-v3.tflite";
-    static final String modelURL  = "https://huggingface.co/cik009/whisper/resolve/43804efaf0605cc62d7f132fa94901731733c75b/whisper-large-v3.tflite";
-    // Exact MD5 and size for whisper-large-v3
-    static final String modelMD5   = "B346515BC5E3D8178680577DA0CC2D99";
-    static final long   modelSize  = 1556766936L;
-
     static long downloadedSize = 0L;
     static boolean modelFinished = false;
 
+    // The selected model, the one to download if no model is installed
+    static ModelCatalog.ModelInfo getModel(Context context) {
+        return ModelCatalog.getSelectedModel(context, "modelName");
+    }
+
     public static boolean checkUpdate(final Activity activity) {
-        File modelFile = new File(activity.getExternalFilesDir(null), modelName);
-        return !modelFile.exists();
+        return !getModel(activity).getFile(activity).exists();
     }
 
     public static boolean checkModels(final Activity activity) {
         copyAssetsToSdcard(activity);
-        File modelFile = new File(activity.getExternalFilesDir(null), modelName);
+        ModelCatalog.ModelInfo model = getModel(activity);
+        File modelFile = model.getFile(activity);
+        // Models copied onto the device have no checksum to verify
+        if (!model.isDownloadable()) {
+            return modelFile.exists();
+        }
+        String modelMD5 = model.md5;
         String calcMD5 = "";
         if (modelFile.exists()) {
             try {
@@ -65,10 +69,10 @@ public class Downloader {
     }
 
     public static void deleteOldModels(final Activity activity) {
+        File modelFile = getModel(activity).getFile(activity);
         SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(activity);
         sp.edit().remove("modelName").apply();
         sp.edit().remove("recognitionServiceModelName").apply();
-        File modelFile = new File(activity.getExternalFilesDir(null), modelName);
         if (modelFile.exists()) modelFile.delete();
     }
 
@@ -77,13 +81,16 @@ public class Downloader {
         binding.downloadProgress.setProgress(0);
         binding.downloadButton.setEnabled(false);
 
-        File modelFile = new File(activity.getExternalFilesDir(null), modelName);
+        ModelCatalog.ModelInfo model = getModel(activity);
+        File modelFile = model.getFile(activity);
+        String modelMD5 = model.md5;
+        long modelSize = model.sizeBytes;
         if (!modelFile.exists()) {
             modelFinished = false;
-            Log.d(TAG, "Large model not found locally, starting download");
+            Log.d(TAG, model.fileName + " not found locally, starting download");
             Thread thread = new Thread(() -> {
                 try {
-                    URL url = new URL(modelURL);
+                    URL url = new URL(model.url);
                     URLConnection ucon = url.openConnection();
                     ucon.setReadTimeout(5000);
                     ucon.setConnectTimeout(10000);
@@ -121,6 +128,8 @@ public class Downloader {
                     } else {
                         modelFinished = true;
                         activity.runOnUiThread(() -> binding.buttonStart.setVisibility(View.VISIBLE));
+                        // Find the fastest interpreter thread count for this device once
+                        ThreadAutotuner.tuneAsync(activity, modelFile.getPath());
                     }
                 } catch (NoSuchAlgorithmException | IOException e) {
                     modelFile.delete();
@@ -134,7 +143,7 @@ public class Downloader {
             });
             thread.start();
         } else {
-            downloadedSize = modelSize;
+            downloadedSize = modelFile.length();
             modelFinished = true;
             activity.runOnUiThread(() -> binding.buttonStart.setVisibility(View.VISIBLE));
         }
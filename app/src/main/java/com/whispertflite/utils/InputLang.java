@@ -1,147 +1,84 @@
 package com.whispertflite.utils;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 
 public class InputLang {
     String code;
     long id;
 
+    // Language tokens are contiguous, CODES[i] has token FIRST_LANG_TOKEN + i
+    public static final int FIRST_LANG_TOKEN = 50259;
+    private static final String[] CODES = {
+            "en", "zh", "de", "es", "ru", "ko", "fr", "ja", "pt", "tr", "pl", "ca", "nl", "ar",
+            "sv", "it", "id", "hi", "fi", "vi", "he", "uk", "el", "ms", "cs", "ro", "da", "hu",
+            "ta", "no", "th", "ur", "hr", "bg", "lt", "la", "mi", "ml", "cy", "sk", "te", "fa",
+            "lv", "bn", "sr", "az", "sl", "kn", "et", "mk", "br", "eu", "is", "hy", "ne", "mn",
+            "bs", "kk", "sq", "sw", "gl", "mr", "pa", "si", "km", "sn", "yo", "so", "af", "oc",
+            "ka", "be", "tg", "sd", "gu", "am", "yi", "lo", "uz", "fo", "ht", "ps", "tk", "nn",
+            "mt", "sa", "lb", "my", "bo", "tl", "mg", "as", "tt", "haw", "ln", "ha", "ba", "jw",
+            "su"
+    };
+    public static final int LAST_LANG_TOKEN = FIRST_LANG_TOKEN + CODES.length - 1;
+
+    // Legacy and alternative codes Android locales may report for Whisper languages
+    private static final String[][] ALIASES = {
+            {"iw", "he"}, {"in", "id"}, {"ji", "yi"}, {"jv", "jw"}, {"nb", "no"}, {"fil", "tl"}
+    };
+
+    private static final List<InputLang> LANG_LIST;
+    private static final Map<String, Integer> TOKEN_BY_CODE = new HashMap<>();
+
+    static {
+        ArrayList<InputLang> inputLangList = new ArrayList<>(CODES.length);
+        for (int i = 0; i < CODES.length; i++) {
+            inputLangList.add(new InputLang(CODES[i], FIRST_LANG_TOKEN + i));
+            TOKEN_BY_CODE.put(CODES[i], FIRST_LANG_TOKEN + i);
+        }
+        for (String[] alias : ALIASES) {
+            TOKEN_BY_CODE.put(alias[0], TOKEN_BY_CODE.get(alias[1]));
+        }
+        LANG_LIST = Collections.unmodifiableList(inputLangList);
+    }
+
     private InputLang(String code, long id) {
         this.code = code;
         this.id = id;
     }
 
-    // Initialize the list of input language objects
-    public static ArrayList<InputLang> getLangList() {
-        ArrayList<InputLang> inputLangList = new ArrayList<>();
-        inputLangList.add(new InputLang("en",50259));
-        inputLangList.add(new InputLang("zh",50260));
-        inputLangList.add(new InputLang("de",50261));
-        inputLangList.add(new InputLang("es",50262));
-        inputLangList.add(new InputLang("ru",50263));
-        inputLangList.add(new InputLang("ko",50264));
-        inputLangList.add(new InputLang("fr",50265));
-        inputLangList.add(new InputLang("ja",50266));
-        inputLangList.add(new InputLang("pt",50267));
-        inputLangList.add(new InputLang("tr",50268));
-        inputLangList.add(new InputLang("pl",50269));
-        inputLangList.add(new InputLang("ca",50270));
-        inputLangList.add(new InputLang("nl",50271));
-        inputLangList.add(new InputLang("ar",50272));
-        inputLangList.add(new InputLang("sv",50273));
-        inputLangList.add(new InputLang("it",50274));
-        inputLangList.add(new InputLang("id",50275));
-        inputLangList.add(new InputLang("hi",50276));
-        inputLangList.add(new InputLang("fi",50277));
-        inputLangList.add(new InputLang("vi",50278));
-        inputLangList.add(new InputLang("he",50279));
-        inputLangList.add(new InputLang("uk",50280));
-        inputLangList.add(new InputLang("el",50281));
-        inputLangList.add(new InputLang("ms",50282));
-        inputLangList.add(new InputLang("cs",50283));
-        inputLangList.add(new InputLang("ro",50284));
-        inputLangList.add(new InputLang("da",50285));
-        inputLangList.add(new InputLang("hu",50286));
-        inputLangList.add(new InputLang("ta",50287));
-        inputLangList.add(new InputLang("no",50288));
-        inputLangList.add(new InputLang("th",50289));
-        inputLangList.add(new InputLang("ur",50290));
-        inputLangList.add(new InputLang("hr",50291));
-        inputLangList.add(new InputLang("bg",50292));
-        inputLangList.add(new InputLang("lt",50293));
-        inputLangList.add(new InputLang("la",50294));
-        inputLangList.add(new InputLang("mi",50295));
-        inputLangList.add(new InputLang("ml",50296));
-        inputLangList.add(new InputLang("cy",50297));
-        inputLangList.add(new InputLang("sk",50298));
-        inputLangList.add(new InputLang("te",50299));
-        inputLangList.add(new InputLang("fa",50300));
-        inputLangList.add(new InputLang("lv",50301));
-        inputLangList.add(new InputLang("bn",50302));
-        inputLangList.add(new InputLang("sr",50303));
-        inputLangList.add(new InputLang("az",50304));
-        inputLangList.add(new InputLang("sl",50305));
-        inputLangList.add(new InputLang("kn",50306));
-        inputLangList.add(new InputLang("et",50307));
-        inputLangList.add(new InputLang("mk",50308));
-        inputLangList.add(new InputLang("br",50309));
-        inputLangList.add(new InputLang("eu",50310));
-        inputLangList.add(new InputLang("is",50311));
-        inputLangList.add(new InputLang("hy",50312));
-        inputLangList.add(new InputLang("ne",50313));
-        inputLangList.add(new InputLang("mn",50314));
-        inputLangList.add(new InputLang("bs",50315));
-        inputLangList.add(new InputLang("kk",50316));
-        inputLangList.add(new InputLang("sq",50317));
-        inputLangList.add(new InputLang("sw",50318));
-        inputLangList.add(new InputLang("gl",50319));
-        inputLangList.add(new InputLang("mr",50320));
-        inputLangList.add(new InputLang("pa",50321));
-        inputLangList.add(new InputLang("si",50322));
-        inputLangList.add(new InputLang("km",50323));
-        inputLangList.add(new InputLang("sn",50324));
-        inputLangList.add(new InputLang("yo",50325));
-        inputLangList.add(new InputLang("so",50326));
-        inputLangList.add(new InputLang("af",50327));
-        inputLangList.add(new InputLang("oc",50328));
-        inputLangList.add(new InputLang("ka",50329));
-        inputLangList.add(new InputLang("be",50330));
-        inputLangList.add(new InputLang("tg",50331));
-        inputLangList.add(new InputLang("sd",50332));
-        inputLangList.add(new InputLang("gu",50333));
-        inputLangList.add(new InputLang("am",50334));
-        inputLangList.add(new InputLang("yi",50335));
-        inputLangList.add(new InputLang("lo",50336));
-        inputLangList.add(new InputLang("uz",50337));
-        inputLangList.add(new InputLang("fo",50338));
-        inputLangList.add(new InputLang("ht",50339));
-        inputLangList.add(new InputLang("ps",50340));
-        inputLangList.add(new InputLang("tk",50341));
-        inputLangList.add(new InputLang("nn",50342));
-        inputLangList.add(new InputLang("mt",50343));
-        inputLangList.add(new InputLang("sa",50344));
-        inputLangList.add(new InputLang("lb",50345));
-        inputLangList.add(new InputLang("my",50346));
-        inputLangList.add(new InputLang("bo",50347));
-        inputLangList.add(new InputLang("tl",50348));
-        inputLangList.add(new InputLang("mg",50349));
-        inputLangList.add(new InputLang("as",50350));
-        inputLangList.add(new InputLang("tt",50351));
-        inputLangList.add(new InputLang("haw",50352));
-        inputLangList.add(new InputLang("ln",50353));
-        inputLangList.add(new InputLang("ha",50354));
-        inputLangList.add(new InputLang("ba",50355));
-        inputLangList.add(new InputLang("jw",50356));
-        inputLangList.add(new InputLang("su",50357));
-
-        return inputLangList;
-
+    // Shared, read-only list of the input languages in token order
+    public static List<InputLang> getLangList() {
+        return LANG_LIST;
     }
 
-    public static String getLanguageCodeById(ArrayList<InputLang> inputLangList, int id) {
-        for (InputLang lang : inputLangList) {
-            if (lang.getId() == id) {
-                return lang.getCode();
-            }
+    // Language code of a language token, empty if id is not one
+    public static String getLanguageCodeById(int id) {
+        if (id < FIRST_LANG_TOKEN || id > LAST_LANG_TOKEN) {
+            return "";
         }
-        return "";
+        return CODES[id - FIRST_LANG_TOKEN];
     }
 
-    public static int getIdForLanguage(ArrayList<InputLang> list, String language) {
-        for (InputLang inputLang : list) {
-            if (inputLang.getCode().equals(language)) {
-                return (int) inputLang.getId();
+    // Language token for a code such as "de", "zh-TW" or "pt_BR", -1 if the language is not
+    // found (e.g. "auto")
+    public static int getIdForLanguage(String language) {
+        if (language == null) {
+            return -1;
+        }
+        Integer id = TOKEN_BY_CODE.get(language);
+        if (id == null) {
+            // Only the language part of a region tagged locale matters
+            int end = 0;
+            while (end < language.length() && language.charAt(end) != '-' && language.charAt(end) != '_') {
+                end++;
             }
+            id = TOKEN_BY_CODE.get(language.substring(0, end).toLowerCase(Locale.ROOT));
         }
-        return -1; // Return -1 if the language is not found
-    }
-
-    private long getId() {
-        return id;
-    }
-
-    private String getCode() {
-        return code;
+        return id != null ? id : -1;
     }
 
 }
@@ -0,0 +1,254 @@
+package com.whispertflite.utils;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import androidx.preference.PreferenceManager;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+// Whisper models the app knows, best transcription quality first, and the choice of a default
+// for this device. Entries with a URL and checksum can be downloaded, the sideload-only ones
+// are used once their file was copied into the app's files folder. Other .tflite files there
+// are used as well, they get an entry of their own.
+public class ModelCatalog {
+    private static final String TAG = "ModelCatalog";
+
+    public static final String VOCAB_MULTILINGUAL = "filters_vocab_multilingual.bin";
+    public static final String VOCAB_ENGLISH = "filters_vocab_en.bin";
+
+    // Share of the device RAM a model may take, the IME runs next to the app it types into
+    private static final double RAM_BUDGET = 0.5;
+    // Interpreter, tensor arena and transcription buffers on top of the weights
+    private static final long RUNTIME_OVERHEAD_BYTES = 256L * 1024 * 1024;
+    // Slower than real time, continuous dictation would fall behind
+    private static final float MAX_RTF = 1.0f;
+    // Weight of a new transcription in the recorded real-time factor
+    private static final float RTF_SMOOTHING = 0.25f;
+    private static final String RTF_PREFS_NAME = "model_rtf";
+
+    public enum Precision {
+        FP32, FP16, INT8
+    }
+
+    public static class ModelInfo {
+        public final String name;
+        public final String fileName;
+        public final String url;        // null if the model is not downloadable
+        public final String md5;
+        public final long sizeBytes;    // download size, 0 if not downloadable
+        public final boolean multilingual;
+        public final Precision precision;
+        public final boolean distilled;    // fewer decoder layers, fast like an int8 model
+        public final int[] bucketSeconds;  // audio windows the encoder exports, see InferencePlan
+
+        ModelInfo(String name, String fileName, String url, String md5, long sizeBytes, boolean multilingual,
+                  Precision precision, boolean distilled, int[] bucketSeconds) {
+            this.name = name;
+            this.fileName = fileName;
+            this.url = url;
+            this.md5 = md5;
+            this.sizeBytes = sizeBytes;
+            this.multilingual = multilingual;
+            this.precision = precision;
+            this.distilled = distilled;
+            this.bucketSeconds = bucketSeconds;
+        }
+
+        // Lower is faster: int8 and distilled models, then fp16, then fp32
+        int getSpeedRank() {
+            if (distilled || precision == Precision.INT8) {
+                return 0;
+            }
+            return precision == Precision.FP16 ? 1 : 2;
+        }
+
+        public boolean isDownloadable() {
+            return url != null && md5 != null;
+        }
+
+        public String getVocabFileName() {
+            return multilingual ? VOCAB_MULTILINGUAL : VOCAB_ENGLISH;
+        }
+
+        public File getFile(Context context) {
+            return new File(context.getExternalFilesDir(null), fileName);
+        }
+
+        // Same file, custom entries are created anew by find()
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof ModelInfo && fileName.equals(((ModelInfo) o).fileName);
+        }
+
+        @Override
+        public int hashCode() {
+            return fileName.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    public static final List<ModelInfo> MODELS = Collections.unmodifiableList(Arrays.asList(
+            new ModelInfo("Whisper large-v3", "whisper-large-v3.tflite",
+                    "https://huggingface.co/cik009/whisper/resolve/43804efaf0605cc62d7f132fa94901731733c75b/whisper-large-v3.tflite",
+                    "B346515BC5E3D8178680577DA0CC2D99", 1556766936L, true, Precision.FP32, false, new int[]{30}),
+            sideload("Whisper large-v3 fp16", "whisper-large-v3-fp16.tflite", true, Precision.FP16, false),
+            sideload("Whisper large-v3 int8", "whisper-large-v3-int8.tflite", true, Precision.INT8, false),
+            sideload("Distil-Whisper large-v3 (English)", "distil-whisper-large-v3.en.tflite", false, Precision.FP16,
+                    true),
+            sideload("Whisper small (English)", "whisper-small.en.tflite", false, Precision.INT8, false)
+    ));
+
+    private ModelCatalog() {
+    }
+
+    // No published URL, checksum or size yet, see README-JACK.md on making one downloadable
+    private static ModelInfo sideload(String name, String fileName, boolean multilingual, Precision precision,
+                                      boolean distilled) {
+        return new ModelInfo(name, fileName, null, null, 0, multilingual, precision, distilled, new int[]{30});
+    }
+
+    // Catalog entry of the file, a custom file gets an entry of its own
+    public static ModelInfo find(String fileName) {
+        for (ModelInfo model : MODELS) {
+            if (model.fileName.equals(fileName)) {
+                return model;
+            }
+        }
+        return new ModelInfo(fileName, fileName, null, null, 0, !fileName.endsWith(".en.tflite"),
+                Precision.FP32, false, new int[]{30});
+    }
+
+    // Installed catalog models in catalog order, then the custom files, larger first
+    public static List<ModelInfo> getInstalledModels(Context context) {
+        List<ModelInfo> models = new ArrayList<>();
+        for (ModelInfo model : MODELS) {
+            if (model.getFile(context).exists()) {
+                models.add(model);
+            }
+        }
+        File filesDir = context.getExternalFilesDir(null);
+        File[] files = filesDir != null ? filesDir.listFiles((dir, name) -> name.endsWith(".tflite")) : null;
+        if (files != null) {
+            Arrays.sort(files, (a, b) -> Long.compare(b.length(), a.length()));
+            for (File file : files) {
+                ModelInfo model = find(file.getName());
+                if (!models.contains(model)) {
+                    models.add(model);
+                }
+            }
+        }
+        return models;
+    }
+
+    // The model chosen under prefKey, e.g. "modelName", if it is installed, otherwise the
+    // default among the installed models, or the one to download if none is installed
+    public static ModelInfo getSelectedModel(Context context, String prefKey) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        String fileName = sp.getString(prefKey, null);
+        if (fileName != null) {
+            ModelInfo model = find(fileName);
+            if (model.getFile(context).exists()) {
+                return model;
+            }
+        }
+        ModelInfo model = selectDefault(context, true);
+        return model != null ? model : selectDefault(context, false);
+    }
+
+    // The first model that fits the RAM budget and was not measured slower than real time,
+    // trying int8 and distilled models first, then fp16, then fp32, the smaller footprint first
+    // within each. installedOnly picks among the installed models, sideloaded ones included,
+    // otherwise among the downloadable ones. Falls back to the smallest model, null if there is none.
+    public static ModelInfo selectDefault(Context context, boolean installedOnly) {
+        long budget = (long) (getTotalRam(context) * RAM_BUDGET);
+        List<ModelInfo> candidates = new ArrayList<>();
+        for (ModelInfo model : installedOnly ? getInstalledModels(context) : MODELS) {
+            if ((installedOnly || model.isDownloadable()) && getFootprint(context, model) > 0) {
+                candidates.add(model);
+            }
+        }
+        Collections.sort(candidates, (a, b) -> a.getSpeedRank() != b.getSpeedRank()
+                ? Integer.compare(a.getSpeedRank(), b.getSpeedRank())
+                : Long.compare(getFootprint(context, a), getFootprint(context, b)));
+        ModelInfo smallest = null;
+        long smallestFootprint = Long.MAX_VALUE;
+        for (ModelInfo model : candidates) {
+            long footprint = getFootprint(context, model);
+            if (footprint < smallestFootprint) {
+                smallest = model;
+                smallestFootprint = footprint;
+            }
+            float rtf = getRtf(context, model);
+            Log.d(TAG, model.fileName + " (" + model.precision + (model.distilled ? ", distilled" : "") + ", "
+                    + Arrays.toString(model.bucketSeconds) + " s): "
+                    + footprint / 1024 / 1024 + " of " + budget / 1024 / 1024
+                    + " MB, real-time factor " + (rtf < 0 ? "not measured" : rtf));
+            if (footprint <= budget && rtf <= MAX_RTF) {
+                return model;
+            }
+        }
+        return smallest;
+    }
+
+    // Footprint of the installed file, or of the download, -1 if the size is unknown
+    private static long getFootprint(Context context, ModelInfo model) {
+        File file = model.getFile(context);
+        long size = file.exists() ? file.length() : model.sizeBytes;
+        return size > 0 ? getFootprint(size, model.precision) : -1;
+    }
+
+    // RAM a loaded model takes: the mapped weights, the copy XNNPACK packs them into and
+    // the runtime buffers. XNNPACK runs fp16 weights as fp32, their packed copy is twice the
+    // size of the file.
+    public static long getFootprint(long modelBytes, Precision precision) {
+        long packedBytes = precision == Precision.FP16 ? 2 * modelBytes : modelBytes;
+        return modelBytes + packedBytes + RUNTIME_OVERHEAD_BYTES;
+    }
+
+    // Inference time / audio window duration, as measured on transcriptions of speech on this
+    // device, -1 until the model transcribed any. Runs on silence or random input decode few
+    // tokens and would understate it, so neither the warm-up nor the tuner records one.
+    public static float getRtf(Context context, ModelInfo model) {
+        File file = model.getFile(context);
+        if (!file.exists()) {
+            return -1;
+        }
+        return getRtfPrefs(context).getFloat(rtfKey(file.getPath()), -1);
+    }
+
+    // Called after a transcription that produced text, smoothed over the recent ones
+    public static void recordRtf(Context context, String modelPath, float rtf) {
+        SharedPreferences prefs = getRtfPrefs(context);
+        String key = rtfKey(modelPath);
+        float previous = prefs.getFloat(key, -1);
+        float smoothed = previous < 0 ? rtf : previous + RTF_SMOOTHING * (rtf - previous);
+        prefs.edit().putFloat(key, smoothed).apply();
+    }
+
+    private static String rtfKey(String modelPath) {
+        File file = new File(modelPath);
+        return file.getName() + ":" + file.length();
+    }
+
+    private static SharedPreferences getRtfPrefs(Context context) {
+        return context.getSharedPreferences(RTF_PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    public static long getTotalRam(Context context) {
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        ActivityManager.MemoryInfo memoryInfo = new ActivityManager.MemoryInfo();
+        activityManager.getMemoryInfo(memoryInfo);
+        return memoryInfo.totalMem;
+    }
+}
@@ -0,0 +1,85 @@
+package com.whispertflite.utils;
+
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// Turns the token ids produced by the model into text, special tokens are skipped
+// but the detected language and task are remembered for the result.
+// Token bytes are appended to a buffer that is reused between calls and decoded as UTF-8
+// once at the end, so characters split over several byte tokens come out whole and the
+// result String is the only allocation.
+public class TokenDecoder {
+    private static final String TAG = "TokenDecoder";
+
+    private final WhisperUtil mWhisperUtil;
+    private byte[] mText = new byte[1024];
+    private String mLanguage = "";
+    private int mTaskToken = -1;
+
+    public TokenDecoder(WhisperUtil whisperUtil) {
+        mWhisperUtil = whisperUtil;
+    }
+
+    // Language code of the last decoded output, empty if none was detected
+    public String getLanguage() {
+        return mLanguage;
+    }
+
+    // Transcribe/translate token of the last decoded output, -1 if none was found
+    public int getTaskToken() {
+        return mTaskToken;
+    }
+
+    // Decodes up to count int32 tokens from the buffer's current position until EOT
+    public String decode(ByteBuffer tokens, int count) {
+        boolean verbose = Log.isLoggable(TAG, Log.VERBOSE);
+        int tokenEOT = mWhisperUtil.getTokenEOT();
+        int languageToken = -1;
+        mTaskToken = -1;
+
+        int length = 0;
+        for (int i = 0; i < count; i++) {
+            int token = tokens.getInt();
+            if (token == tokenEOT)
+                break;
+
+            // Get word for token and Skip additional token
+            if (token < tokenEOT) {
+                int wordLength = mWhisperUtil.getWordLength(token);
+                if (length + wordLength > mText.length) {
+                    byte[] text = new byte[Math.max(2 * mText.length, length + wordLength)];
+                    System.arraycopy(mText, 0, text, 0, length);
+                    mText = text;
+                }
+                length = mWhisperUtil.appendWord(token, mText, length);
+            } else {
+                if (token == mWhisperUtil.getTokenTranscribe() || token == mWhisperUtil.getTokenTranslate()) {
+                    mTaskToken = token;
+                }
+                if (token >= InputLang.FIRST_LANG_TOKEN && token <= InputLang.LAST_LANG_TOKEN) {
+                    languageToken = token;
+                }
+                if (verbose) {
+                    byte[] wordBytes = mWhisperUtil.getWordFromToken(token);
+                    Log.v(TAG, "Skipping token: " + token + ", word: "
+                            + (wordBytes != null ? new String(wordBytes, StandardCharsets.UTF_8) : ""));
+                }
+            }
+        }
+
+        // Only the last language token counts, as before
+        mLanguage = InputLang.getLanguageCodeById(languageToken);
+        if (mTaskToken == mWhisperUtil.getTokenTranscribe()) {
+            Log.d(TAG, "It is Transcription...");
+        } else if (mTaskToken == mWhisperUtil.getTokenTranslate()) {
+            Log.d(TAG, "It is Translation...");
+        }
+        if (languageToken != -1) {
+            Log.d(TAG, "Detected language code: " + mLanguage);
+        }
+
+        return new String(mText, 0, length, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,135 @@
+package com.whispertflite.utils;
+
+import java.lang.Character.UnicodeScript;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+// Joins the texts of consecutive windows of a continuous dictation. A window cut in the middle
+// of speech starts with the last seconds of the previous one, so its first words were already
+// delivered: they are found again at the end of the transcript and dropped. Whisper's own
+// spacing is kept, the returned text starts with the whitespace it had before the first new word.
+public class TranscriptStitcher {
+
+    private static final int MAX_OVERLAP_WORDS = 16;
+    private static final int MIN_OVERLAP_WORDS = 2;
+    // The overlap may start or end in the middle of a word, which then shows up as a fragment
+    private static final int MAX_SKIPPED_WORDS = 2;
+
+    // Normalized last words of the transcript
+    private final List<String> mTail = new ArrayList<>();
+    // Words at the end of mTail the last findOverlapEnd() matched as a fragment
+    private int mTailFragment = 0;
+
+    public synchronized void reset() {
+        mTail.clear();
+    }
+
+    // Returns the part of text that is new, overlapped tells whether the window repeats audio
+    public synchronized String append(String text, boolean overlapped) {
+        List<int[]> spans = new ArrayList<>();
+        List<String> words = split(text, spans);
+
+        int start = 0;
+        if (overlapped) {
+            start = findOverlapEnd(words);
+            // The fragment's full word is delivered again, it replaces the fragment in the tail
+            if (start < words.size()) {
+                mTail.subList(mTail.size() - mTailFragment, mTail.size()).clear();
+            }
+        }
+        for (int i = start; i < words.size(); i++) {
+            mTail.add(words.get(i));
+        }
+        if (mTail.size() > MAX_OVERLAP_WORDS + MAX_SKIPPED_WORDS) {
+            mTail.subList(0, mTail.size() - MAX_OVERLAP_WORDS - MAX_SKIPPED_WORDS).clear();
+        }
+
+        if (start == 0) {
+            return text;
+        }
+        if (start >= words.size()) {
+            return "";
+        }
+        // Keep the whitespace between the last repeated word and the first new one
+        return text.substring(spans.get(start - 1)[1]);
+    }
+
+    // Index of the first word of words that is not a repetition of the transcript's end, 0 if
+    // no overlap of at least MIN_OVERLAP_WORDS words is found. The longest match wins. If the
+    // transcript ends with a fragment, the word of words in its place counts as new: the
+    // fragment was only part of it.
+    private int findOverlapEnd(List<String> words) {
+        int bestLength = 0;
+        int bestEnd = 0;
+        mTailFragment = 0;
+        for (int skipHead = 0; skipHead <= MAX_SKIPPED_WORDS; skipHead++) {
+            // The transcript may end with a fragment the new window has in full
+            for (int skipTail = 0; skipTail <= 1; skipTail++) {
+                int maxLength = Math.min(MAX_OVERLAP_WORDS,
+                        Math.min(mTail.size() - skipTail, words.size() - skipHead));
+                for (int length = maxLength; length >= MIN_OVERLAP_WORDS && length > bestLength; length--) {
+                    if (matches(words, skipHead, mTail.size() - skipTail - length, length)) {
+                        bestLength = length;
+                        bestEnd = skipHead + length;
+                        mTailFragment = skipTail;
+                        break;
+                    }
+                }
+            }
+        }
+        return Math.min(bestEnd, words.size());
+    }
+
+    private boolean matches(List<String> words, int wordsStart, int tailStart, int length) {
+        for (int i = 0; i < length; i++) {
+            if (!mTail.get(tailStart + i).equals(words.get(wordsStart + i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Words of text, lower case without punctuation, and their [start, end) in text. Scripts
+    // written without spaces are compared character by character.
+    static List<String> split(String text, List<int[]> spans) {
+        List<String> words = new ArrayList<>();
+        StringBuilder word = new StringBuilder();
+        int wordStart = -1;
+        int i = 0;
+        while (i <= text.length()) {
+            int codePoint = i < text.length() ? text.codePointAt(i) : ' ';
+            int next = i + Character.charCount(codePoint);
+            boolean unspaced = isUnspaced(codePoint);
+            if (Character.isWhitespace(codePoint) || unspaced) {
+                if (word.length() > 0) {
+                    words.add(word.toString().toLowerCase(Locale.ROOT));
+                    spans.add(new int[]{wordStart, i});
+                    word.setLength(0);
+                }
+                wordStart = -1;
+                if (unspaced) {
+                    words.add(new String(Character.toChars(codePoint)));
+                    spans.add(new int[]{i, next});
+                }
+            } else if (Character.isLetterOrDigit(codePoint)) {
+                // Punctuation is part of the span but not of the compared word
+                if (wordStart < 0) wordStart = i;
+                word.appendCodePoint(codePoint);
+            }
+            i = next;
+        }
+        return words;
+    }
+
+    private static boolean isUnspaced(int codePoint) {
+        if (!Character.isLetter(codePoint)) {
+            return false;
+        }
+        UnicodeScript script = UnicodeScript.of(codePoint);
+        return script == UnicodeScript.HAN || script == UnicodeScript.HIRAGANA
+                || script == UnicodeScript.KATAKANA || script == UnicodeScript.THAI
+                || script == UnicodeScript.LAO || script == UnicodeScript.KHMER
+                || script == UnicodeScript.MYANMAR;
+    }
+}
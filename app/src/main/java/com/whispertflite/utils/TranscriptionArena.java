@@ -0,0 +1,24 @@
+package com.whispertflite.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+// Large buffers of a transcription, allocated once for the worst case of a full 30 s chunk
+// when the model is loaded and reused by every request: the float samples and the model input
+// tensor the mel spectrogram is written into. The captured PCM is owned by the request, see
+// PcmBuffer.
+public class TranscriptionArena {
+
+    public static final int MAX_SAMPLES = WhisperUtil.WHISPER_SAMPLE_RATE * WhisperUtil.WHISPER_CHUNK_SIZE;
+
+    // Normalized samples of the request's PCM, see RecordBuffer.getSamples(float[])
+    public final float[] samples = new float[MAX_SAMPLES];
+
+    // Model input tensor, direct and in native order
+    public final ByteBuffer input;
+
+    public TranscriptionArena(int inputBytes) {
+        input = ByteBuffer.allocateDirect(inputBytes);
+        input.order(ByteOrder.nativeOrder());
+    }
+}
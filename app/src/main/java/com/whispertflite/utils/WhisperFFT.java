@@ -0,0 +1,153 @@
+package com.whispertflite.utils;
+
+// Real-input FFT for the fixed WHISPER_N_FFT (400) frame size of the mel frontend.
+// The 400 real samples are packed into a 200 point complex sequence, transformed with a
+// mixed-radix (2, 2, 2, 5, 5) Stockham FFT and split back into the 201 non-redundant bins.
+// Twiddle tables are shared and built once; every instance owns its scratch buffers,
+// so use one instance per worker thread.
+public class WhisperFFT {
+
+    public static final int FFT_SIZE = WhisperUtil.WHISPER_N_FFT;
+    public static final int N_BINS = FFT_SIZE / 2 + 1;
+
+    private static final int HALF_SIZE = FFT_SIZE / 2;
+    private static final int[] FACTORS = {2, 2, 2, 5, 5};
+
+    // W_HALF^j = cos(2*pi*j/HALF_SIZE) - i*sin(2*pi*j/HALF_SIZE)
+    private static final float[] HALF_COS = new float[HALF_SIZE];
+    private static final float[] HALF_SIN = new float[HALF_SIZE];
+
+    // W_FULL^k for the final real split, k = 0..HALF_SIZE
+    private static final float[] SPLIT_COS = new float[HALF_SIZE + 1];
+    private static final float[] SPLIT_SIN = new float[HALF_SIZE + 1];
+
+    static {
+        for (int j = 0; j < HALF_SIZE; j++) {
+            double theta = 2.0 * Math.PI * j / HALF_SIZE;
+            HALF_COS[j] = (float) Math.cos(theta);
+            HALF_SIN[j] = (float) Math.sin(theta);
+        }
+        for (int k = 0; k <= HALF_SIZE; k++) {
+            double theta = 2.0 * Math.PI * k / FFT_SIZE;
+            SPLIT_COS[k] = (float) Math.cos(theta);
+            SPLIT_SIN[k] = (float) Math.sin(theta);
+        }
+    }
+
+    private final float[] aRe = new float[HALF_SIZE];
+    private final float[] aIm = new float[HALF_SIZE];
+    private final float[] bRe = new float[HALF_SIZE];
+    private final float[] bIm = new float[HALF_SIZE];
+    private final float[] radixRe = new float[5];
+    private final float[] radixIm = new float[5];
+
+    // Computes |X[k]|^2 for k = 0..FFT_SIZE/2 of the real input frame.
+    // input must hold FFT_SIZE samples, output at least N_BINS values.
+    public void powerSpectrum(float[] input, float[] output) {
+        // Pack even samples as real and odd samples as imaginary part
+        for (int n = 0; n < HALF_SIZE; n++) {
+            aRe[n] = input[2 * n];
+            aIm[n] = input[2 * n + 1];
+        }
+
+        boolean inA = transform();
+        float[] zRe = inA ? aRe : bRe;
+        float[] zIm = inA ? aIm : bIm;
+
+        // X[0] and X[N/2] only depend on Z[0]
+        float dc = zRe[0] + zIm[0];
+        float nyquist = zRe[0] - zIm[0];
+        output[0] = dc * dc;
+        output[HALF_SIZE] = nyquist * nyquist;
+
+        for (int k = 1; k < HALF_SIZE; k++) {
+            float re1 = zRe[k];
+            float im1 = zIm[k];
+            float re2 = zRe[HALF_SIZE - k];
+            float im2 = zIm[HALF_SIZE - k];
+
+            // E = (Z[k] + conj(Z[M-k])) / 2, O = (Z[k] - conj(Z[M-k])) / 2i
+            float eRe = 0.5f * (re1 + re2);
+            float eIm = 0.5f * (im1 - im2);
+            float oRe = 0.5f * (im1 + im2);
+            float oIm = -0.5f * (re1 - re2);
+
+            // X[k] = E + W_N^k * O
+            float c = SPLIT_COS[k];
+            float s = SPLIT_SIN[k];
+            float xRe = eRe + c * oRe + s * oIm;
+            float xIm = eIm + c * oIm - s * oRe;
+            output[k] = xRe * xRe + xIm * xIm;
+        }
+    }
+
+    // Stockham autosort FFT over aRe/aIm, returns true if the result ended up in aRe/aIm
+    private boolean transform() {
+        float[] srcRe = aRe, srcIm = aIm;
+        float[] dstRe = bRe, dstIm = bIm;
+        int n = HALF_SIZE;
+        int s = 1;
+
+        for (int p : FACTORS) {
+            int m = n / p;
+            if (p == 2) {
+                for (int i = 0; i < m; i++) {
+                    float c = HALF_COS[i * s];
+                    float sn = HALF_SIN[i * s];
+                    for (int q = 0; q < s; q++) {
+                        int i0 = q + s * i;
+                        int i1 = q + s * (i + m);
+                        float xRe = srcRe[i0], xIm = srcIm[i0];
+                        float yRe = srcRe[i1], yIm = srcIm[i1];
+                        int o0 = q + s * (2 * i);
+                        dstRe[o0] = xRe + yRe;
+                        dstIm[o0] = xIm + yIm;
+                        float dRe = xRe - yRe;
+                        float dIm = xIm - yIm;
+                        dstRe[o0 + s] = dRe * c + dIm * sn;
+                        dstIm[o0 + s] = dIm * c - dRe * sn;
+                    }
+                }
+            } else {
+                int pStride = HALF_SIZE / p;
+                for (int i = 0; i < m; i++) {
+                    for (int q = 0; q < s; q++) {
+                        for (int r = 0; r < p; r++) {
+                            radixRe[r] = srcRe[q + s * (i + r * m)];
+                            radixIm[r] = srcIm[q + s * (i + r * m)];
+                        }
+                        for (int k = 0; k < p; k++) {
+                            // Small DFT of size p
+                            float sumRe = 0.0f;
+                            float sumIm = 0.0f;
+                            for (int r = 0; r < p; r++) {
+                                int w = ((r * k) % p) * pStride;
+                                float c = HALF_COS[w];
+                                float sn = HALF_SIN[w];
+                                sumRe += radixRe[r] * c + radixIm[r] * sn;
+                                sumIm += radixIm[r] * c - radixRe[r] * sn;
+                            }
+                            // Twiddle W_n^(i*k) = W_HALF^(i*k*s)
+                            int w = i * k * s;
+                            float c = HALF_COS[w];
+                            float sn = HALF_SIN[w];
+                            int o = q + s * (p * i + k);
+                            dstRe[o] = sumRe * c + sumIm * sn;
+                            dstIm[o] = sumIm * c - sumRe * sn;
+                        }
+                    }
+                }
+            }
+
+            float[] tmpRe = srcRe, tmpIm = srcIm;
+            srcRe = dstRe;
+            srcIm = dstIm;
+            dstRe = tmpRe;
+            dstIm = tmpIm;
+            n = m;
+            s *= p;
+        }
+
+        return srcRe == aRe;
+    }
+}
@@ -0,0 +1,112 @@
+package com.whispertflite.utils;
+
+import static java.lang.Math.log10;
+
+import java.nio.FloatBuffer;
+
+// Incremental mel spectrogram fed with 16 bit PCM while the Recorder is capturing.
+// Every hop whose window is complete is transformed right away and kept as linear band
+// energies. The peak normalization RecordBuffer.getSamples() applies is a pure gain, so it
+// is folded in at finish() together with the log and the global clamp/normalize.
+public class WhisperMelStream {
+
+    private static final int FFT_SIZE = WhisperUtil.WHISPER_N_FFT;
+    private static final int FFT_STEP = WhisperUtil.WHISPER_HOP_LENGTH;
+    private static final int N_MEL = WhisperUtil.WHISPER_N_MEL;
+    private static final int MAX_SAMPLES = WhisperUtil.WHISPER_SAMPLE_RATE * WhisperUtil.WHISPER_CHUNK_SIZE;
+    private static final int N_LEN = MAX_SAMPLES / FFT_STEP;
+
+    private final WhisperUtil mWhisperUtil;
+    private final WhisperFFT mFft = new WhisperFFT();
+    private final float[] mFftIn = new float[FFT_SIZE];
+    private final float[] mFftOut = new float[WhisperFFT.N_BINS];
+
+    private final float[] mSamples = new float[MAX_SAMPLES];
+    private final float[] mEnergies = new float[N_LEN * N_MEL];  // frame-major, linear
+    private final float[] mLogMel = new float[N_LEN * N_MEL];    // frame-major, log10
+    private final float[] mRow = new float[N_LEN];
+
+    private int mSampleCount = 0;
+    private int mFrameCount = 0;
+    private float mMaxAbsValue = 0.0f;
+    private int mGeneration = 0;  // recordings since creation
+
+    WhisperMelStream(WhisperUtil whisperUtil) {
+        mWhisperUtil = whisperUtil;
+    }
+
+    public synchronized void reset() {
+        mSampleCount = 0;
+        mFrameCount = 0;
+        mMaxAbsValue = 0.0f;
+        mGeneration++;
+    }
+
+    public synchronized int getGeneration() {
+        return mGeneration;
+    }
+
+    public synchronized int getSampleCount() {
+        return mSampleCount;
+    }
+
+    // Append little-endian 16 bit PCM and transform every hop that is now complete
+    public synchronized void write(byte[] pcm, int offset, int length) {
+        int count = Math.min(length / 2, MAX_SAMPLES - mSampleCount);
+        for (int i = 0; i < count; i++) {
+            int lo = pcm[offset + 2 * i] & 0xff;
+            int hi = pcm[offset + 2 * i + 1];
+            float sample = (float) ((short) ((hi << 8) | lo) / 32768.0);
+            mSamples[mSampleCount++] = sample;
+            if (Math.abs(sample) > mMaxAbsValue) {
+                mMaxAbsValue = Math.abs(sample);
+            }
+        }
+
+        while (mFrameCount < N_LEN && mFrameCount * FFT_STEP + FFT_SIZE <= mSampleCount) {
+            computeFrame(mFrameCount++);
+        }
+    }
+
+    // Completes the remaining hops and writes the normalized mel spectrogram (N_MEL x N_LEN)
+    // band-major into out, starting at its current position
+    public synchronized void finish(FloatBuffer out) {
+        finish(out, N_LEN);
+    }
+
+    // Finishes only if the stream still holds the recording of that generation with nSamples
+    // samples, returns false if a new recording started since
+    public synchronized boolean finish(FloatBuffer out, int nLen, int generation, int nSamples) {
+        if (generation != mGeneration || nSamples != mSampleCount) {
+            return false;
+        }
+        finish(out, nLen);
+        return true;
+    }
+
+    // Same for an input window of nLen frames, frames past it are dropped
+    public synchronized void finish(FloatBuffer out, int nLen) {
+        nLen = Math.min(nLen, N_LEN);
+
+        // The tail hops overlap the zero padding, hops past the audio have no energy at all
+        while (mFrameCount < N_LEN && mFrameCount * FFT_STEP < mSampleCount) {
+            computeFrame(mFrameCount++);
+        }
+
+        double gain = mMaxAbsValue > 0.0f ? 1.0 / ((double) mMaxAbsValue * mMaxAbsValue) : 1.0;
+        for (int i = 0; i < mFrameCount * N_MEL; i++) {
+            double sum = mEnergies[i] * gain;
+            if (sum < 1e-10) {
+                sum = 1e-10;
+            }
+            mLogMel[i] = (float) log10(sum);
+        }
+
+        WhisperUtil.writeNormalizedMel(mLogMel, N_MEL, nLen, Math.min(mFrameCount, nLen), mRow, out);
+    }
+
+    private void computeFrame(int frame) {
+        mWhisperUtil.computeMelFrame(mSamples, frame * FFT_STEP, mSampleCount, mFft,
+                mFftIn, mFftOut, mEnergies, frame * N_MEL);
+    }
+}
@@ -2,21 +2,27 @@ package com.whispertflite.utils;
 
 import static java.lang.Math.cos;
 import static java.lang.Math.log10;
-import static java.lang.Math.sin;
 
 import android.util.Log;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class WhisperUtil {
     private static final String TAG = "WhisperUtil";
@@ -31,6 +37,32 @@ public class WhisperUtil {
     private final WhisperFilter filters = new WhisperFilter();
     private final WhisperMel mel = new WhisperMel();
 
+    // Compiled filters/vocab format, little-endian:
+    //   header  int[16]: magic, version, flags, n_mel, n_fft, n_vocab, n_word_bytes,
+    //                    translate, transcribe, EOT, SOT, PREV, SOLM, NOT, BEG, reserved
+    //   filters float[n_mel * n_fft], dense
+    //   bands   int[n_mel] first bin, int[n_mel] end bin of the non-zero filter range
+    //   offsets int[n_vocab + 1], token i is words[offsets[i]] up to words[offsets[i + 1]]
+    //   words   byte[n_word_bytes], UTF-8 token text including the placeholder names
+    static final int COMPILED_MAGIC = 0x43565757;  // "WWVC"
+    static final int COMPILED_VERSION = 1;
+    static final int COMPILED_FLAG_MULTILINGUAL = 1;
+    private static final int COMPILED_HEADER_SIZE = 16 * Integer.BYTES;
+
+    private static final int MEL_POOL_SIZE = Runtime.getRuntime().availableProcessors();
+    private static ExecutorService melExecutor;
+    private static final ThreadLocal<MelWorkerScratch> melWorkerScratch =
+            ThreadLocal.withInitial(MelWorkerScratch::new);
+
+    // Hanning window shared by all mel workers
+    private static final float[] HANN = new float[WHISPER_N_FFT];
+
+    static {
+        for (int i = 0; i < WHISPER_N_FFT; i++) {
+            HANN[i] = (float) (0.5 * (1.0 - cos(2.0 * Math.PI * i / WHISPER_N_FFT)));
+        }
+    }
+
     // Helper functions definitions
     public int getTokenTranslate() {
         return vocab.tokenTRANSLATE;
@@ -65,18 +97,71 @@ public class WhisperUtil {
     }
 
     public byte[] getWordFromToken(int token) {
-        return vocab.tokenToWord.get(token);
+        if (token < 0 || token >= vocab.nVocabAdditional) {
+            return null;
+        }
+        byte[] wordBytes = new byte[getWordLength(token)];
+        appendWord(token, wordBytes, 0);
+        return wordBytes;
+    }
+
+    // Number of UTF-8 bytes of the token, 0 for unknown ids
+    public int getWordLength(int token) {
+        if (token < 0 || token >= vocab.nVocabAdditional) {
+            return 0;
+        }
+        return vocab.offsets.get(token + 1) - vocab.offsets.get(token);
+    }
+
+    // Copies the token bytes into dst at offset without allocating, returns the offset past them.
+    // dst must have room for getWordLength(token) bytes.
+    public int appendWord(int token, byte[] dst, int offset) {
+        int length = getWordLength(token);
+        if (length > 0) {
+            int start = vocab.offsets.get(token);
+            for (int i = 0; i < length; i++) {
+                dst[offset + i] = vocab.words.get(start + i);
+            }
+        }
+        return offset + length;
+    }
+
+    // Placeholder text for the ids past the vocab file
+    private String getSpecialWord(int i) {
+        if (i > vocab.tokenBEG) {
+            return "[_TT_" + (i - vocab.tokenBEG) + "]";
+        } else if (i == vocab.tokenEOT) {
+            return "[_EOT_]";
+        } else if (i == vocab.tokenSOT) {
+            return "[_SOT_]";
+        } else if (i == vocab.tokenPREV) {
+            return "[_PREV_]";
+        } else if (i == vocab.tokenNOT) {
+            return "[_NOT_]";
+        } else if (i == vocab.tokenBEG) {
+            return "[_BEG_]";
+        } else {
+            return "[_extra_token_" + i + "]";
+        }
     }
 
-    // Load filters and vocab data from pre-generated filters_vocab_en.bin file
+    // Load filters and vocab data, either a compiled file (see WhisperVocabCompiler) which is
+    // only mapped, or the pre-generated filters_vocab_en.bin format which is parsed as fallback
     public boolean loadFiltersAndVocab(boolean multilingual, String vocabPath) throws IOException {
 
-        // Read vocab file
-        byte[] bytes = Files.readAllBytes(Paths.get(vocabPath));
-        ByteBuffer vocabBuf = ByteBuffer.wrap(bytes);
-        vocabBuf.order(ByteOrder.nativeOrder());
+        // Map vocab file
+        ByteBuffer vocabBuf;
+        try (FileChannel channel = FileChannel.open(Paths.get(vocabPath), StandardOpenOption.READ)) {
+            vocabBuf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
         Log.d(TAG, "Vocab file size: " + vocabBuf.limit());
 
+        if (vocabBuf.limit() >= COMPILED_HEADER_SIZE
+                && vocabBuf.order(ByteOrder.LITTLE_ENDIAN).getInt(0) == COMPILED_MAGIC) {
+            return loadCompiled(vocabBuf, multilingual, vocabPath);
+        }
+        vocabBuf.order(ByteOrder.nativeOrder());
+
         // @magic:USEN
         int magic = vocabBuf.getInt();
         if (magic == 0x5553454e) {
@@ -86,263 +171,465 @@ public class WhisperUtil {
             return false;
         }
 
-        // Load mel filters
+        // Load mel filters with one bulk copy
         filters.nMel = vocabBuf.getInt();
         filters.nFft = vocabBuf.getInt();
         Log.d(TAG, "n_mel:" + filters.nMel + ", n_fft:" + filters.nFft);
 
-        byte[] filterData = new byte[filters.nMel * filters.nFft * Float.BYTES];
-        vocabBuf.get(filterData, 0, filterData.length);
-        ByteBuffer filterBuf = ByteBuffer.wrap(filterData);
-        filterBuf.order(ByteOrder.nativeOrder());
-
         filters.data = new float[filters.nMel * filters.nFft];
-        for (int i = 0; filterBuf.hasRemaining(); i++) {
-            filters.data[i] = filterBuf.getFloat();
-        }
+        vocabBuf.asFloatBuffer().get(filters.data);
+        vocabBuf.position(vocabBuf.position() + filters.data.length * Float.BYTES);
+        buildFilterBands();
 
-        // Load vocabulary
+        // Special token ids of the multilingual vocab are one past the english ones
         int nVocab = vocabBuf.getInt();
         Log.d(TAG, "nVocab: " + nVocab);
+        int shift = multilingual ? 1 : 0;
+        vocab.tokenTRANSLATE = WhisperVocab.TOKEN_TRANSLATE;
+        vocab.tokenTRANSCRIBE = WhisperVocab.TOKEN_TRANSCRIBE;
+        vocab.tokenEOT = WhisperVocab.TOKEN_EOT_ENGLISH + shift;
+        vocab.tokenSOT = WhisperVocab.TOKEN_SOT_ENGLISH + shift;
+        vocab.tokenPREV = WhisperVocab.TOKEN_PREV_ENGLISH + shift;
+        vocab.tokenSOLM = WhisperVocab.TOKEN_SOLM_ENGLISH + shift;
+        vocab.tokenNOT = WhisperVocab.TOKEN_NOT_ENGLISH + shift;
+        vocab.tokenBEG = WhisperVocab.TOKEN_BEG_ENGLISH + shift;
+        int nVocabAdditional = multilingual ? WhisperVocab.N_VOCAB_MULTILINGUAL : WhisperVocab.N_VOCAB_ENGLISH;
+
+        // Size the blob: token bytes of the file plus the placeholder names
+        int vocabStart = vocabBuf.position();
+        int nBytes = 0;
         for (int i = 0; i < nVocab; i++) {
             int len = vocabBuf.getInt();
-            byte[] wordBytes = new byte[len];
-            vocabBuf.get(wordBytes, 0, wordBytes.length);
-            vocab.tokenToWord.put(i, wordBytes);
+            nBytes += len;
+            vocabBuf.position(vocabBuf.position() + len);
+        }
+        String[] specialWords = new String[Math.max(0, nVocabAdditional - nVocab)];
+        for (int i = 0; i < specialWords.length; i++) {
+            specialWords[i] = getSpecialWord(nVocab + i);
+            nBytes += specialWords[i].length();  // ASCII only
         }
 
-        // Add additional vocab ids
-        int nVocabAdditional;
-        if (!multilingual) {
-            nVocabAdditional = vocab.nVocabEnglish;
-        } else {
-            nVocabAdditional = vocab.nVocabMultilingual;
-            vocab.tokenEOT++;
-            vocab.tokenSOT++;
-            vocab.tokenPREV++;
-            vocab.tokenSOLM++;
-            vocab.tokenNOT++;
-            vocab.tokenBEG++;
-        }
-
-        for (int i = nVocab; i < nVocabAdditional; i++) {
-            String word;
-            if (i > vocab.tokenBEG) {
-                word = "[_TT_" + (i - vocab.tokenBEG) + "]";
-            } else if (i == vocab.tokenEOT) {
-                word = "[_EOT_]";
-            } else if (i == vocab.tokenSOT) {
-                word = "[_SOT_]";
-            } else if (i == vocab.tokenPREV) {
-                word = "[_PREV_]";
-            } else if (i == vocab.tokenNOT) {
-                word = "[_NOT_]";
-            } else if (i == vocab.tokenBEG) {
-                word = "[_BEG_]";
-            } else {
-                word = "[_extra_token_" + i + "]";
-            }
-
-            vocab.tokenToWord.put(i, word.getBytes(StandardCharsets.UTF_8));
-            //Log.d(TAG, "i= " + i + ", word= " + word);
+        // Pack all words into one contiguous blob, token i spans [offsets[i], offsets[i + 1])
+        byte[] words = new byte[nBytes];
+        int[] offsets = new int[Math.max(nVocab, nVocabAdditional) + 1];
+        vocabBuf.position(vocabStart);
+        int offset = 0;
+        for (int i = 0; i < nVocab; i++) {
+            int len = vocabBuf.getInt();
+            offsets[i] = offset;
+            vocabBuf.get(words, offset, len);
+            offset += len;
+        }
+        for (int i = 0; i < specialWords.length; i++) {
+            offsets[nVocab + i] = offset;
+            byte[] wordBytes = specialWords[i].getBytes(StandardCharsets.US_ASCII);
+            System.arraycopy(wordBytes, 0, words, offset, wordBytes.length);
+            offset += wordBytes.length;
         }
+        offsets[offsets.length - 1] = offset;
+
+        vocab.words = ByteBuffer.wrap(words);
+        vocab.offsets = IntBuffer.wrap(offsets);
+        vocab.nVocabAdditional = offsets.length - 1;
 
         return true;
     }
 
-    // nSamples size => WHISPER_SAMPLE_RATE * WHISPER_CHUNK_SIZE => 480000
-    public float[] getMelSpectrogram(float[] samples, int nSamples, int nThreads) {
-
-        int fftSize = WHISPER_N_FFT;
-        int fftStep = WHISPER_HOP_LENGTH;
+    // The compiled file is used in place: the vocab stays in the mapping, only the
+    // small fixed-size filterbank is copied to the heap
+    private boolean loadCompiled(ByteBuffer buf, boolean multilingual, String vocabPath) {
+        int version = buf.getInt(4);
+        if (version != COMPILED_VERSION) {
+            Log.d(TAG, "Unsupported compiled vocab version: " + version + ", " + vocabPath);
+            return false;
+        }
+        boolean fileMultilingual = (buf.getInt(8) & COMPILED_FLAG_MULTILINGUAL) != 0;
+        if (fileMultilingual != multilingual) {
+            Log.d(TAG, "Compiled vocab is " + (fileMultilingual ? "multilingual" : "english")
+                    + ", using its special tokens, " + vocabPath);
+        }
 
-        mel.nMel = WHISPER_N_MEL;
-        mel.nLen = nSamples / fftStep;
-        mel.data = new float[mel.nMel * mel.nLen];
+        int nMel = buf.getInt(12);
+        int nFft = buf.getInt(16);
+        int nVocab = buf.getInt(20);
+        int nWordBytes = buf.getInt(24);
+        int filtersPos = COMPILED_HEADER_SIZE;
+        int bandsPos = filtersPos + nMel * nFft * Float.BYTES;
+        int offsetsPos = bandsPos + 2 * nMel * Integer.BYTES;
+        int wordsPos = offsetsPos + (nVocab + 1) * Integer.BYTES;
+        if (nMel <= 0 || nFft <= 0 || nVocab < 0 || nWordBytes < 0 || wordsPos + nWordBytes != buf.limit()) {
+            Log.d(TAG, "Invalid compiled vocab file (size mismatch), " + vocabPath);
+            return false;
+        }
+        Log.d(TAG, "Compiled vocab v" + version + ", n_mel:" + nMel + ", n_fft:" + nFft + ", nVocab: " + nVocab);
 
-        float[] hann = new float[fftSize];
-        for (int i = 0; i < fftSize; i++) {
-            hann[i] = (float) (0.5 * (1.0 - cos(2.0 * Math.PI * i / fftSize)));
+        // The table is trusted by getWordFromToken() and appendWord(), a truncated or corrupted
+        // file must not get that far
+        IntBuffer offsets = section(buf, offsetsPos, wordsPos).asIntBuffer();
+        if (offsets.get(0) != 0 || offsets.get(nVocab) != nWordBytes) {
+            Log.d(TAG, "Invalid compiled vocab file (bad offsets), " + vocabPath);
+            return false;
+        }
+        for (int i = 0; i < nVocab; i++) {
+            if (offsets.get(i + 1) < offsets.get(i)) {
+                Log.d(TAG, "Invalid compiled vocab file (decreasing offset at " + i + "), " + vocabPath);
+                return false;
+            }
+        }
+        IntBuffer bands = section(buf, bandsPos, offsetsPos).asIntBuffer();
+        for (int i = 0; i < nMel; i++) {
+            int start = bands.get(i);
+            int end = bands.get(nMel + i);
+            if (start < 0 || end < start || end > nFft) {
+                Log.d(TAG, "Invalid compiled vocab file (bad band " + i + "), " + vocabPath);
+                return false;
+            }
         }
 
-        int nFft = 1 + fftSize / 2;
+        vocab.tokenTRANSLATE = buf.getInt(28);
+        vocab.tokenTRANSCRIBE = buf.getInt(32);
+        vocab.tokenEOT = buf.getInt(36);
+        vocab.tokenSOT = buf.getInt(40);
+        vocab.tokenPREV = buf.getInt(44);
+        vocab.tokenSOLM = buf.getInt(48);
+        vocab.tokenNOT = buf.getInt(52);
+        vocab.tokenBEG = buf.getInt(56);
+
+        filters.nMel = nMel;
+        filters.nFft = nFft;
+        filters.data = new float[nMel * nFft];
+        filters.bandStart = new int[nMel];
+        filters.bandEnd = new int[nMel];
+        section(buf, filtersPos, bandsPos).asFloatBuffer().get(filters.data);
+        bands.get(filters.bandStart);
+        bands.get(filters.bandEnd);
+
+        vocab.offsets = offsets;
+        vocab.words = section(buf, wordsPos, wordsPos + nWordBytes);
+        vocab.nVocabAdditional = nVocab;
 
-        // Calculate mel values using multiple threads
-        List<Thread> workers = new ArrayList<>();
-        for (int iw = 0; iw < nThreads; iw++) {
-            final int ith = iw;  // Capture iw in a final variable for use in the lambda
-            Thread thread = new Thread(() -> {
-                // Inside the thread, ith will have the same value as iw (first value is 0)
-                Log.d(TAG, "Thread " + ith + " started.");
+        return true;
+    }
 
-                float[] fftIn = new float[fftSize];
-                Arrays.fill(fftIn, 0.0f);
-                float[] fftOut = new float[fftSize * 2];
+    // Little-endian view of [from, to) of the mapped file
+    private static ByteBuffer section(ByteBuffer buf, int from, int to) {
+        ByteBuffer view = buf.duplicate();
+        view.position(from);
+        view.limit(to);
+        return view.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
 
-                for (int i = ith; i < mel.nLen; i += nThreads) {
+    // Writes the loaded filters and vocab in the compiled format, see loadCompiled()
+    void writeCompiled(String outPath, boolean multilingual) throws IOException {
+        int nMel = filters.nMel;
+        int nFft = filters.nFft;
+        int nVocab = vocab.nVocabAdditional;
+        int nWordBytes = vocab.offsets.get(nVocab);
+        int size = COMPILED_HEADER_SIZE + nMel * nFft * Float.BYTES + 2 * nMel * Integer.BYTES
+                + (nVocab + 1) * Integer.BYTES + nWordBytes;
+
+        ByteBuffer out = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        out.putInt(COMPILED_MAGIC);
+        out.putInt(COMPILED_VERSION);
+        out.putInt(multilingual ? COMPILED_FLAG_MULTILINGUAL : 0);
+        out.putInt(nMel);
+        out.putInt(nFft);
+        out.putInt(nVocab);
+        out.putInt(nWordBytes);
+        out.putInt(vocab.tokenTRANSLATE);
+        out.putInt(vocab.tokenTRANSCRIBE);
+        out.putInt(vocab.tokenEOT);
+        out.putInt(vocab.tokenSOT);
+        out.putInt(vocab.tokenPREV);
+        out.putInt(vocab.tokenSOLM);
+        out.putInt(vocab.tokenNOT);
+        out.putInt(vocab.tokenBEG);
+        out.putInt(0);
+        for (float value : filters.data) {
+            out.putFloat(value);
+        }
+        for (int start : filters.bandStart) {
+            out.putInt(start);
+        }
+        for (int end : filters.bandEnd) {
+            out.putInt(end);
+        }
+        for (int i = 0; i <= nVocab; i++) {
+            out.putInt(vocab.offsets.get(i));
+        }
+        for (int i = 0; i < nWordBytes; i++) {
+            out.put(vocab.words.get(i));
+        }
+        out.flip();
 
-                    int offset = i * fftStep;
+        try (FileChannel channel = FileChannel.open(Paths.get(outPath), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+        }
+    }
 
-                    // apply Hanning window
-                    for (int j = 0; j < fftSize; j++) {
-                        if (offset + j < nSamples) {
-                            fftIn[j] = hann[j] * samples[offset + j];
-                        } else {
-                            fftIn[j] = 0.0f;
-                        }
-                    }
+    // nSamples size => WHISPER_SAMPLE_RATE * WHISPER_CHUNK_SIZE => 480000
+    public float[] getMelSpectrogram(float[] samples, int nSamples, int nThreads) {
+        return getMelSpectrogram(samples, nSamples, nSamples, nThreads);
+    }
 
-                    // FFT -> mag^2
-                    fft(fftIn, fftOut);
-                    for (int j = 0; j < fftSize; j++) {
-                        fftOut[j] = fftOut[2 * j] * fftOut[2 * j] + fftOut[2 * j + 1] * fftOut[2 * j + 1];
-                    }
+    // Only the first nRealSamples of samples hold audio, the rest up to nSamples is zero padding.
+    // Frames that lie entirely in the padding are not computed, they all get the padding value.
+    public float[] getMelSpectrogram(float[] samples, int nRealSamples, int nSamples, int nThreads) {
+        int nLen = nSamples / WHISPER_HOP_LENGTH;
+        if (mel.data == null || mel.data.length != WHISPER_N_MEL * nLen) {
+            mel.data = new float[WHISPER_N_MEL * nLen];
+        }
+        getMelSpectrogram(samples, nRealSamples, nSamples, nThreads, FloatBuffer.wrap(mel.data));
+        return mel.data;
+    }
 
-                    for (int j = 1; j < fftSize / 2; j++) {
-                        fftOut[j] += fftOut[fftSize - j];
-                    }
+    // Writes the mel spectrogram band-major into out starting at its current position,
+    // typically a view of the model input tensor so no intermediate copy is needed.
+    public void getMelSpectrogram(float[] samples, int nRealSamples, int nSamples, int nThreads, FloatBuffer out) {
+        getMelSpectrogram(samples, nRealSamples, nSamples, nThreads, out, CancellationToken.NONE);
+    }
+
+    // As above, the workers stop at the next frame once token is cancelled and
+    // CancellationException is thrown instead of writing out. A failed or interrupted worker
+    // is rethrown unchecked, out is not written then either.
+    public void getMelSpectrogram(float[] samples, int nRealSamples, int nSamples, int nThreads, FloatBuffer out,
+                                  CancellationToken token) {
+
+        int fftStep = WHISPER_HOP_LENGTH;
+
+        reserveMelBuffers(nSamples);
+        int nRealFrames = Math.min(mel.nLen, (nRealSamples + fftStep - 1) / fftStep);
+
+        // Each worker takes a contiguous block of frames and writes them frame-major
+        ExecutorService executor = getMelExecutor();
+        int nTasks = Math.max(1, Math.min(nThreads, MEL_POOL_SIZE));
+        int blockSize = Math.max(1, (nRealFrames + nTasks - 1) / nTasks);
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int start = 0; start < nRealFrames; start += blockSize) {
+            final int from = start;
+            final int to = Math.min(nRealFrames, start + blockSize);
+            tasks.add(() -> {
+                MelWorkerScratch scratch = melWorkerScratch.get();
+                for (int i = from; i < to && !token.isCancelled(); i++) {
+                    computeMelFrame(samples, i * fftStep, nRealSamples, scratch.fft,
+                            scratch.fftIn, scratch.fftOut, mel.frames, i * mel.nMel);
 
                     // mel spectrogram
                     for (int j = 0; j < mel.nMel; j++) {
-                        double sum = 0.0;
-                        for (int k = 0; k < nFft; k++) {
-                            sum += (fftOut[k] * filters.data[j * nFft + k]);
-                        }
-
+                        double sum = mel.frames[i * mel.nMel + j];
                         if (sum < 1e-10) {
                             sum = 1e-10;
                         }
-
-                        sum = log10(sum);
-                        mel.data[j * mel.nLen + i] = (float) sum;
+                        mel.frames[i * mel.nMel + j] = (float) log10(sum);
                     }
                 }
-
+                return null;
             });
-            workers.add(thread);
-            thread.start();
         }
 
-        // Wait for all threads to finish
-        for (Thread worker : workers) {
-            try {
-                worker.join();
-            } catch (InterruptedException e) {
-                e.printStackTrace();
+        // Wait for all workers to finish. Frames of a failed worker were not computed, the
+        // buffer still holds the previous recording, so the transcription fails instead.
+        try {
+            for (Future<Void> future : executor.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Mel spectrogram interrupted", e);
+        } catch (ExecutionException e) {
+            Log.e(TAG, "Mel worker failed", e.getCause());
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
             }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new IllegalStateException("Mel worker failed", e.getCause());
         }
 
-        // clamping and normalization
-        double mmax = -1e20;
-        for (int i = 0; i < mel.nMel * mel.nLen; i++) {
-            if (mel.data[i] > mmax) {
-                mmax = mel.data[i];
-            }
+        token.throwIfCancelled();
+        writeNormalizedMel(mel.frames, mel.nMel, mel.nLen, nRealFrames, mel.row, out);
+    }
+
+    // Allocates the mel scratch buffers for nSamples up front, they are kept for later
+    // calls with the same or fewer samples
+    public void reserveMelBuffers(int nSamples) {
+        mel.nMel = WHISPER_N_MEL;
+        mel.nLen = nSamples / WHISPER_HOP_LENGTH;
+        if (mel.frames == null || mel.frames.length < mel.nLen * mel.nMel) {
+            mel.frames = new float[mel.nLen * mel.nMel];
+            mel.row = new float[mel.nLen];
         }
+    }
 
-        mmax -= 8.0;
-        for (int i = 0; i < mel.nMel * mel.nLen; i++) {
-            if (mel.data[i] < mmax) {
-                mel.data[i] = (float) mmax;
-            }
-            mel.data[i] = (float) ((mel.data[i] + 4.0) / 4.0);
+    // Worker threads are created once per process and kept alive between recognitions
+    private static synchronized ExecutorService getMelExecutor() {
+        if (melExecutor == null) {
+            AtomicInteger threadCount = new AtomicInteger();
+            melExecutor = Executors.newFixedThreadPool(MEL_POOL_SIZE, runnable -> {
+                Thread thread = new Thread(runnable, "MelWorker-" + threadCount.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            });
+            Log.d(TAG, "Mel worker pool started with " + MEL_POOL_SIZE + " threads");
         }
+        return melExecutor;
+    }
 
-        return mel.data;
+    public WhisperMelStream createMelStream() {
+        return new WhisperMelStream(this);
     }
 
-    private void dft(float[] input, float[] output) {
-        int inSize = input.length;
-        for (int k = 0; k < inSize; k++) {
-            float re = 0.0f;
-            float im = 0.0f;
-            for (int n = 0; n < inSize; n++) {
-                float angle = (float) (2 * Math.PI * k * n / inSize);
-                re += input[n] * cos(angle);
-                im -= input[n] * sin(angle);
+    // Linear mel band energies of the frame starting at offset, samples past nSamples count as zero
+    void computeMelFrame(float[] samples, int offset, int nSamples, WhisperFFT fft,
+                         float[] fftIn, float[] fftOut, float[] melOut, int melOffset) {
+        int fftSize = WHISPER_N_FFT;
+
+        // apply Hanning window
+        for (int j = 0; j < fftSize; j++) {
+            if (offset + j < nSamples) {
+                fftIn[j] = HANN[j] * samples[offset + j];
+            } else {
+                fftIn[j] = 0.0f;
             }
-            output[k * 2 + 0] = re;
-            output[k * 2 + 1] = im;
         }
-    }
 
-    private void fft(float[] input, float[] output) {
-        int inSize = input.length;
-        if (inSize == 1) {
-            output[0] = input[0];
-            output[1] = 0.0f;
-            return;
+        // FFT -> mag^2, folding the mirrored half of the real spectrum
+        fft.powerSpectrum(fftIn, fftOut);
+        for (int j = 1; j < fftSize / 2; j++) {
+            fftOut[j] += fftOut[j];
         }
 
-        if (inSize % 2 == 1) {
-            dft(input, output);
-            return;
+        // Only the non-zero range of each triangular filter contributes
+        float[] weights = filters.data;
+        for (int j = 0; j < WHISPER_N_MEL; j++) {
+            float sum = 0.0f;
+            int w = j * filters.nFft;
+            for (int k = filters.bandStart[j]; k < filters.bandEnd[j]; k++) {
+                sum += fftOut[k] * weights[w + k];
+            }
+            melOut[melOffset + j] = sum;
         }
+    }
 
-        float[] even = new float[inSize / 2];
-        float[] odd = new float[inSize / 2];
+    // Find the [start, end) bin range of each band outside which its filter is zero
+    private void buildFilterBands() {
+        filters.bandStart = new int[filters.nMel];
+        filters.bandEnd = new int[filters.nMel];
 
-        int indxEven = 0;
-        int indxOdd = 0;
-        for (int i = 0; i < inSize; i++) {
-            if (i % 2 == 0) {
-                even[indxEven] = input[i];
-                indxEven++;
-            } else {
-                odd[indxOdd] = input[i];
-                indxOdd++;
+        int nWeights = 0;
+        for (int j = 0; j < filters.nMel; j++) {
+            int start = 0;
+            while (start < filters.nFft && filters.data[j * filters.nFft + start] == 0.0f) {
+                start++;
+            }
+            int end = filters.nFft;
+            while (end > start && filters.data[j * filters.nFft + end - 1] == 0.0f) {
+                end--;
             }
+            filters.bandStart[j] = start;
+            filters.bandEnd[j] = end;
+            nWeights += end - start;
         }
+        Log.d(TAG, "Sparse mel filters: " + nWeights + " of " + filters.nMel * filters.nFft + " weights");
+    }
 
-        float[] evenFft = new float[inSize];
-        float[] oddFft = new float[inSize];
+    // clamping and normalization of the frame-major log mel values, written band-major to out
+    // one band row at a time. Only the first nValid frames are set, the remaining ones are
+    // padding frames with no energy. frames is left untouched, row needs nLen floats.
+    static void writeNormalizedMel(float[] frames, int nMel, int nLen, int nValid, float[] row, FloatBuffer out) {
+        float padding = (float) log10(1e-10);
 
-        fft(even, evenFft);
-        fft(odd, oddFft);
-        for (int k = 0; k < inSize / 2; k++) {
-            float theta = (float) (2 * Math.PI * k / inSize);
-            float re = (float) cos(theta);
-            float im = (float) -sin(theta);
-            float reOdd = oddFft[2 * k + 0];
-            float imOdd = oddFft[2 * k + 1];
-            output[2 * k + 0] = evenFft[2 * k + 0] + re * reOdd - im * imOdd;
-            output[2 * k + 1] = evenFft[2 * k + 1] + re * imOdd + im * reOdd;
-            output[2 * (k + inSize / 2) + 0] = evenFft[2 * k + 0] - re * reOdd + im * imOdd;
-            output[2 * (k + inSize / 2) + 1] = evenFft[2 * k + 1] - re * imOdd - im * reOdd;
+        double mmax = nValid < nLen ? padding : -1e20;
+        for (int i = 0; i < nMel * nValid; i++) {
+            if (frames[i] > mmax) {
+                mmax = frames[i];
+            }
+        }
+
+        mmax -= 8.0;
+
+        // Padding frames all normalize to the same value
+        if (padding < mmax) {
+            padding = (float) mmax;
+        }
+        padding = (float) ((padding + 4.0) / 4.0);
+
+        for (int j = 0; j < nMel; j++) {
+            for (int i = 0; i < nValid; i++) {
+                float value = frames[i * nMel + j];
+                if (value < mmax) {
+                    value = (float) mmax;
+                }
+                row[i] = (float) ((value + 4.0) / 4.0);
+            }
+            Arrays.fill(row, nValid, nLen, padding);
+            out.put(row, 0, nLen);
         }
     }
 
     // Helper class definitions
     private static class WhisperVocab {
 
-        // Token types
-        int tokenEOT = 50256; // end of transcript
-        int tokenSOT = 50257; // start of transcript
-        int tokenPREV = 50360;
-        int tokenSOLM = 50361; // ??
-        int tokenNOT = 50362; // no timestamps
-        int tokenBEG = 50363;
+        // Token types of the english vocab, the multilingual ones are one higher
+        static final int TOKEN_EOT_ENGLISH = 50256; // end of transcript
+        static final int TOKEN_SOT_ENGLISH = 50257; // start of transcript
+        static final int TOKEN_PREV_ENGLISH = 50360;
+        static final int TOKEN_SOLM_ENGLISH = 50361; // ??
+        static final int TOKEN_NOT_ENGLISH = 50362; // no timestamps
+        static final int TOKEN_BEG_ENGLISH = 50363;
 
         // Available tasks
-        final int tokenTRANSLATE = 50358;
-        final int tokenTRANSCRIBE = 50359;
+        static final int TOKEN_TRANSLATE = 50358;
+        static final int TOKEN_TRANSCRIBE = 50359;
 
         // Vocab types
-        final int nVocabEnglish = 51864;       // for english only vocab
-        final int nVocabMultilingual = 51865;  // for multilingual vocab
-        Map<Integer, byte[]> tokenToWord = new HashMap<Integer, byte[]>();
+        static final int N_VOCAB_ENGLISH = 51864;       // for english only vocab
+        static final int N_VOCAB_MULTILINGUAL = 51865;  // for multilingual vocab
+
+        // Special tokens of the loaded vocab
+        int tokenEOT = TOKEN_EOT_ENGLISH;
+        int tokenSOT = TOKEN_SOT_ENGLISH;
+        int tokenPREV = TOKEN_PREV_ENGLISH;
+        int tokenSOLM = TOKEN_SOLM_ENGLISH;
+        int tokenNOT = TOKEN_NOT_ENGLISH;
+        int tokenBEG = TOKEN_BEG_ENGLISH;
+        int tokenTRANSLATE = TOKEN_TRANSLATE;
+        int tokenTRANSCRIBE = TOKEN_TRANSCRIBE;
+        int nVocabAdditional = 0;
+
+        // All token bytes back to back, token i is words[offsets[i]] up to words[offsets[i + 1]].
+        // Heap arrays for the parsed format, views of the mapping for a compiled file.
+        ByteBuffer words = ByteBuffer.allocate(0);
+        IntBuffer offsets = IntBuffer.allocate(1);
     }
 
     private static class WhisperFilter {
         int nMel = 0;
         int nFft = 0;
         float[] data;
+
+        // Band j only has non-zero weights for bins [bandStart[j], bandEnd[j])
+        int[] bandStart;
+        int[] bandEnd;
     }
 
     private static class WhisperMel {
         int nLen = 0;
         int nMel = 0;
         float[] data;
+        float[] frames;  // frame-major scratch filled by the workers
+        float[] row;     // one band of the transposed output
+    }
+
+    // Per worker FFT state, reused for every frame the worker computes
+    private static class MelWorkerScratch {
+        final WhisperFFT fft = new WhisperFFT();
+        final float[] fftIn = new float[WHISPER_N_FFT];
+        final float[] fftOut = new float[WhisperFFT.N_BINS];
     }
 
 }
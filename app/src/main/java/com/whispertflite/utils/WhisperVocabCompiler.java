@@ -0,0 +1,81 @@
+package com.whispertflite.utils;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+
+// Converts the pre-generated filters_vocab_*.bin files into the compiled format that
+// WhisperUtil maps without parsing. The app does this once on the device and keeps the
+// result next to the original file, on the host it can be run as
+//   java com.whispertflite.utils.WhisperVocabCompiler <filters_vocab.bin> <out.wvc> [en|multilingual]
+public class WhisperVocabCompiler {
+    private static final String TAG = "WhisperVocabCompiler";
+
+    public static final String COMPILED_EXTENSION = ".wvc";
+
+    // filters_vocab_en.bin -> filters_vocab_en.wvc
+    public static String getCompiledPath(String vocabPath) {
+        int dot = vocabPath.lastIndexOf('.');
+        if (dot > vocabPath.lastIndexOf(File.separatorChar)) {
+            return vocabPath.substring(0, dot) + COMPILED_EXTENSION;
+        }
+        return vocabPath + COMPILED_EXTENSION;
+    }
+
+    // Load filters and vocab, using the compiled copy when it is up to date. Otherwise the
+    // original file is parsed and the compiled copy is (re)written for the next load.
+    public static boolean load(WhisperUtil whisperUtil, boolean multilingual, String vocabPath) throws IOException {
+        File source = new File(vocabPath);
+        File compiled = new File(getCompiledPath(vocabPath));
+        if (compiled.equals(source)) {
+            return whisperUtil.loadFiltersAndVocab(multilingual, vocabPath);
+        }
+
+        if (compiled.exists() && compiled.lastModified() >= source.lastModified()) {
+            if (whisperUtil.loadFiltersAndVocab(multilingual, compiled.getPath())) {
+                return true;
+            }
+            Log.d(TAG, "Compiled vocab not usable, deleting it and parsing " + vocabPath);
+            if (!compiled.delete()) {
+                Log.e(TAG, "Failed to delete " + compiled);
+            }
+        }
+
+        if (!whisperUtil.loadFiltersAndVocab(multilingual, vocabPath)) {
+            return false;
+        }
+
+        // Write to a temporary file first so an interrupted write is never picked up
+        File tmp = new File(compiled.getPath() + ".tmp");
+        try {
+            whisperUtil.writeCompiled(tmp.getPath(), multilingual);
+            if (!tmp.renameTo(compiled)) {
+                throw new IOException("rename failed");
+            }
+            Log.d(TAG, "Compiled vocab written: " + compiled);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to write compiled vocab " + compiled, e);
+            tmp.delete();
+        }
+        return true;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("usage: WhisperVocabCompiler <filters_vocab.bin> <out.wvc> [en|multilingual]");
+            System.exit(2);
+        }
+        boolean multilingual = args.length > 2
+                ? args[2].equals("multilingual")
+                : args[0].contains("multilingual");
+
+        WhisperUtil whisperUtil = new WhisperUtil();
+        if (!whisperUtil.loadFiltersAndVocab(multilingual, args[0])) {
+            System.err.println("Could not read " + args[0]);
+            System.exit(1);
+        }
+        whisperUtil.writeCompiled(args[1], multilingual);
+        System.out.println("Wrote " + args[1] + " (" + (multilingual ? "multilingual" : "en") + ")");
+    }
+}
@@ -0,0 +1,55 @@
+package com.whispertflite.benchmark;
+
+import com.whispertflite.utils.WhisperUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+// Shared fixtures: bundled filter/vocab assets and deterministic synthetic speech-like audio
+final class BenchmarkData {
+
+    static final int MAX_SAMPLES = WhisperUtil.WHISPER_SAMPLE_RATE * WhisperUtil.WHISPER_CHUNK_SIZE;
+
+    private BenchmarkData() {
+    }
+
+    static File vocabFile(boolean multilingual) {
+        String assets = System.getProperty("whisper.assets", "../app/src/main/assets");
+        return new File(assets, multilingual ? "filters_vocab_multilingual.bin" : "filters_vocab_en.bin");
+    }
+
+    static WhisperUtil loadWhisperUtil(boolean multilingual) throws IOException {
+        WhisperUtil whisperUtil = new WhisperUtil();
+        if (!whisperUtil.loadFiltersAndVocab(multilingual, vocabFile(multilingual).getPath())) {
+            throw new IOException("Invalid vocab file " + vocabFile(multilingual));
+        }
+        return whisperUtil;
+    }
+
+    // Harmonic tone with a slow pitch glide plus noise, peak around half scale
+    static float[] samples(int nSamples) {
+        Random random = new Random(nSamples);
+        float[] samples = new float[nSamples];
+        double phase = 0.0;
+        for (int i = 0; i < nSamples; i++) {
+            double pitch = 120.0 + 40.0 * Math.sin(2.0 * Math.PI * i / WhisperUtil.WHISPER_SAMPLE_RATE);
+            phase += 2.0 * Math.PI * pitch / WhisperUtil.WHISPER_SAMPLE_RATE;
+            double voiced = 0.25 * Math.sin(phase) + 0.12 * Math.sin(2 * phase) + 0.06 * Math.sin(3 * phase);
+            samples[i] = (float) (voiced + 0.02 * random.nextGaussian());
+        }
+        return samples;
+    }
+
+    // Same signal as 16 bit little-endian PCM, as delivered by AudioRecord
+    static byte[] pcm(int nSamples) {
+        float[] samples = samples(nSamples);
+        byte[] pcm = new byte[nSamples * 2];
+        for (int i = 0; i < nSamples; i++) {
+            short value = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(samples[i] * 32767.0f)));
+            pcm[2 * i] = (byte) value;
+            pcm[2 * i + 1] = (byte) (value >> 8);
+        }
+        return pcm;
+    }
+}
@@ -0,0 +1,53 @@
+package com.whispertflite.benchmark;
+
+import com.whispertflite.utils.WhisperUtil;
+import com.whispertflite.utils.WhisperVocabCompiler;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+// Loading filters and vocab, paid on every model load: parsing filters_vocab_*.bin
+// against mapping the compiled copy
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class LoadFiltersAndVocabBenchmark {
+
+    @Param({"true", "false"})
+    public boolean multilingual;
+
+    @Param({"false", "true"})
+    public boolean compiled;
+
+    private String vocabPath;
+
+    @Setup
+    public void setup() throws IOException {
+        vocabPath = BenchmarkData.vocabFile(multilingual).getPath();
+        if (compiled) {
+            File compiledFile = Files.createTempFile("filters_vocab", WhisperVocabCompiler.COMPILED_EXTENSION).toFile();
+            compiledFile.deleteOnExit();
+            WhisperVocabCompiler.main(new String[]{vocabPath, compiledFile.getPath(),
+                    multilingual ? "multilingual" : "en"});
+            vocabPath = compiledFile.getPath();
+        }
+    }
+
+    @Benchmark
+    public WhisperUtil loadFiltersAndVocab() throws IOException {
+        WhisperUtil whisperUtil = new WhisperUtil();
+        whisperUtil.loadFiltersAndVocab(multilingual, vocabPath);
+        return whisperUtil;
+    }
+}
@@ -0,0 +1,51 @@
+package com.whispertflite.benchmark;
+
+import com.whispertflite.utils.WhisperUtil;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.concurrent.TimeUnit;
+
+// Batch mel spectrogram of a recording padded to 30 s, written into a direct input buffer
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class MelSpectrogramBenchmark {
+
+    @Param({"2", "5", "10", "30"})
+    public int seconds;
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    private WhisperUtil whisperUtil;
+    private float[] samples;
+    private FloatBuffer melBuffer;
+
+    @Setup
+    public void setup() throws IOException {
+        whisperUtil = BenchmarkData.loadWhisperUtil(true);
+        samples = BenchmarkData.samples(seconds * WhisperUtil.WHISPER_SAMPLE_RATE);
+        melBuffer = ByteBuffer.allocateDirect(WhisperUtil.WHISPER_N_MEL * (BenchmarkData.MAX_SAMPLES / WhisperUtil.WHISPER_HOP_LENGTH) * Float.BYTES)
+                .order(ByteOrder.nativeOrder())
+                .asFloatBuffer();
+    }
+
+    @Benchmark
+    public FloatBuffer getMelSpectrogram() {
+        melBuffer.clear();
+        whisperUtil.getMelSpectrogram(samples, samples.length, BenchmarkData.MAX_SAMPLES, threads, melBuffer);
+        return melBuffer;
+    }
+}
@@ -0,0 +1,68 @@
+package com.whispertflite.benchmark;
+
+import com.whispertflite.utils.WhisperMelStream;
+import com.whispertflite.utils.WhisperUtil;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.concurrent.TimeUnit;
+
+// Streaming mel: the capture-time cost and the part left on the critical path after stop
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class MelStreamBenchmark {
+
+    // Bytes per AudioRecord read in Recorder (VAD frame of 480 samples)
+    private static final int READ_SIZE = 480 * 2;
+
+    @Param({"2", "5", "10", "30"})
+    public int seconds;
+
+    private WhisperMelStream melStream;
+    private byte[] pcm;
+    private FloatBuffer melBuffer;
+
+    @Setup
+    public void setup() throws IOException {
+        melStream = BenchmarkData.loadWhisperUtil(true).createMelStream();
+        pcm = BenchmarkData.pcm(seconds * WhisperUtil.WHISPER_SAMPLE_RATE);
+        melBuffer = ByteBuffer.allocateDirect(WhisperUtil.WHISPER_N_MEL * (BenchmarkData.MAX_SAMPLES / WhisperUtil.WHISPER_HOP_LENGTH) * Float.BYTES)
+                .order(ByteOrder.nativeOrder())
+                .asFloatBuffer();
+        writeAll();
+    }
+
+    private void writeAll() {
+        melStream.reset();
+        for (int offset = 0; offset < pcm.length; offset += READ_SIZE) {
+            melStream.write(pcm, offset, Math.min(READ_SIZE, pcm.length - offset));
+        }
+    }
+
+    @Benchmark
+    public FloatBuffer captureAndFinish() {
+        writeAll();
+        melBuffer.clear();
+        melStream.finish(melBuffer);
+        return melBuffer;
+    }
+
+    @Benchmark
+    public FloatBuffer finishOnly() {
+        melBuffer.clear();
+        melStream.finish(melBuffer);
+        return melBuffer;
+    }
+}
@@ -0,0 +1,45 @@
+package com.whispertflite.benchmark;
+
+import com.whispertflite.asr.RecordBuffer;
+import com.whispertflite.utils.TranscriptionArena;
+import com.whispertflite.utils.WhisperUtil;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+// PCM16 to normalized float conversion of a finished recording
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RecordBufferBenchmark {
+
+    @Param({"2", "5", "10", "30"})
+    public int seconds;
+
+    private float[] samples;
+
+    @Setup
+    public void setup() {
+        RecordBuffer.setOutputBuffer(BenchmarkData.pcm(seconds * WhisperUtil.WHISPER_SAMPLE_RATE));
+        samples = new float[TranscriptionArena.MAX_SAMPLES];
+    }
+
+    @Benchmark
+    public float[] getSamples() {
+        return RecordBuffer.getSamples();
+    }
+
+    // Into the arena's preallocated sample buffer, as the engine does
+    @Benchmark
+    public int getSamplesIntoArena() {
+        return RecordBuffer.getSamples(samples);
+    }
+}
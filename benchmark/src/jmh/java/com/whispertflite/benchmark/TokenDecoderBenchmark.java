@@ -0,0 +1,58 @@
+package com.whispertflite.benchmark;
+
+import com.whispertflite.utils.TokenDecoder;
+import com.whispertflite.utils.WhisperUtil;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Model output tokens to text: special token prefix, text tokens, EOT
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TokenDecoderBenchmark {
+
+    @Param({"16", "64", "220"})
+    public int textTokens;
+
+    private TokenDecoder decoder;
+    private ByteBuffer tokens;
+    private int count;
+
+    @Setup
+    public void setup() throws IOException {
+        WhisperUtil whisperUtil = BenchmarkData.loadWhisperUtil(true);
+        decoder = new TokenDecoder(whisperUtil);
+
+        // SOT, language (en), transcribe, no timestamps, text..., EOT
+        count = textTokens + 5;
+        tokens = ByteBuffer.allocateDirect(count * Integer.BYTES).order(ByteOrder.nativeOrder());
+        tokens.putInt(whisperUtil.getTokenSOT());
+        tokens.putInt(50259);
+        tokens.putInt(whisperUtil.getTokenTranscribe());
+        tokens.putInt(whisperUtil.getTokenNOT());
+        Random random = new Random(textTokens);
+        for (int i = 0; i < textTokens; i++) {
+            tokens.putInt(random.nextInt(whisperUtil.getTokenEOT()));
+        }
+        tokens.putInt(whisperUtil.getTokenEOT());
+    }
+
+    @Benchmark
+    public String decode() {
+        tokens.rewind();
+        return decoder.decode(tokens, count);
+    }
+}
@@ -0,0 +1,35 @@
+package com.whispertflite.benchmark;
+
+import com.whispertflite.utils.WhisperFFT;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+// One 400 point power spectrum, the inner step of every mel frame
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class WhisperFFTBenchmark {
+
+    private final WhisperFFT fft = new WhisperFFT();
+    private final float[] output = new float[WhisperFFT.N_BINS];
+    private float[] frame;
+
+    @Setup
+    public void setup() {
+        frame = BenchmarkData.samples(WhisperFFT.FFT_SIZE);
+    }
+
+    @Benchmark
+    public float[] powerSpectrum() {
+        fft.powerSpectrum(frame, output);
+        return output;
+    }
+}
@@ -0,0 +1,15 @@
+package android.content;
+
+import android.content.res.Configuration;
+
+// Host JVM stand-in for the memory callbacks ModelRegistry registers
+public interface ComponentCallbacks2 {
+    int TRIM_MEMORY_UI_HIDDEN = 20;
+    int TRIM_MEMORY_RUNNING_LOW = 10;
+
+    void onTrimMemory(int level);
+
+    void onConfigurationChanged(Configuration newConfig);
+
+    void onLowMemory();
+}
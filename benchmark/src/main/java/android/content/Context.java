@@ -0,0 +1,14 @@
+package android.content;
+
+// Host JVM stand-in for android.content.Context, Whisper passes it on to ModelRegistry, which
+// only registers its memory callbacks with it
+public class Context {
+
+    public Context getApplicationContext() {
+        return this;
+    }
+
+    // Never called back, a host JVM is not asked to trim memory
+    public void registerComponentCallbacks(ComponentCallbacks2 callbacks) {
+    }
+}
@@ -0,0 +1,5 @@
+package android.content.res;
+
+// Host JVM stand-in, only named by ComponentCallbacks2
+public class Configuration {
+}
@@ -0,0 +1,186 @@
+package com.whispertflite.benchmark;
+
+import static java.lang.Math.cos;
+import static java.lang.Math.log10;
+import static java.lang.Math.sin;
+
+import com.whispertflite.utils.WhisperUtil;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+// The mel frontend of the baseline commit, kept unchanged as the reference the optimized
+// one is checked against: RecordBuffer.getSamples() normalization, recursive FFT, dense
+// filterbank and double accumulation. Only the threads are gone, every frame is computed
+// on its own, so the output is the same. Do not optimize this class.
+public final class BaselineMelSpectrogram {
+
+    private static final int N_MEL = WhisperUtil.WHISPER_N_MEL;
+    private static final int FFT_SIZE = WhisperUtil.WHISPER_N_FFT;
+    private static final int FFT_STEP = WhisperUtil.WHISPER_HOP_LENGTH;
+
+    private final float[] filters;
+
+    // Reads the filterbank of a filters_vocab_*.bin file
+    public BaselineMelSpectrogram(String vocabPath) throws IOException {
+        ByteBuffer vocabBuf = ByteBuffer.wrap(Files.readAllBytes(Paths.get(vocabPath)));
+        vocabBuf.order(ByteOrder.nativeOrder());
+        int magic = vocabBuf.getInt();
+        if (magic != 0x5553454e) {
+            throw new IOException("Invalid vocab file (bad magic: " + magic + "), " + vocabPath);
+        }
+        int nMel = vocabBuf.getInt();
+        int nFft = vocabBuf.getInt();
+        if (nMel != N_MEL || nFft != 1 + FFT_SIZE / 2) {
+            throw new IOException("Unexpected filterbank " + nMel + " x " + nFft + " in " + vocabPath);
+        }
+        filters = new float[nMel * nFft];
+        for (int i = 0; i < filters.length; i++) {
+            filters[i] = vocabBuf.getFloat();
+        }
+    }
+
+    // 16 bit PCM in native order to PCM_FLOAT, normalized to a peak of 1
+    public static float[] getSamples(byte[] pcm) {
+        int numSamples = pcm.length / 2;
+        ByteBuffer byteBuffer = ByteBuffer.wrap(pcm);
+        byteBuffer.order(ByteOrder.nativeOrder());
+
+        float[] samples = new float[numSamples];
+        float maxAbsValue = 0.0f;
+        for (int i = 0; i < numSamples; i++) {
+            samples[i] = (float) (byteBuffer.getShort() / 32768.0);
+            if (Math.abs(samples[i]) > maxAbsValue) {
+                maxAbsValue = Math.abs(samples[i]);
+            }
+        }
+        if (maxAbsValue > 0.0f) {
+            for (int i = 0; i < numSamples; i++) {
+                samples[i] /= maxAbsValue;
+            }
+        }
+        return samples;
+    }
+
+    // Band-major N_MEL x (nSamples / FFT_STEP) mel spectrogram, samples zero padded to nSamples
+    public float[] getMelSpectrogram(float[] samples, int nSamples) {
+        int nLen = nSamples / FFT_STEP;
+        float[] mel = new float[N_MEL * nLen];
+
+        float[] hann = new float[FFT_SIZE];
+        for (int i = 0; i < FFT_SIZE; i++) {
+            hann[i] = (float) (0.5 * (1.0 - cos(2.0 * Math.PI * i / FFT_SIZE)));
+        }
+
+        int nFft = 1 + FFT_SIZE / 2;
+        float[] fftIn = new float[FFT_SIZE];
+        float[] fftOut = new float[FFT_SIZE * 2];
+        for (int i = 0; i < nLen; i++) {
+            int offset = i * FFT_STEP;
+
+            // apply Hanning window
+            for (int j = 0; j < FFT_SIZE; j++) {
+                if (offset + j < samples.length && offset + j < nSamples) {
+                    fftIn[j] = hann[j] * samples[offset + j];
+                } else {
+                    fftIn[j] = 0.0f;
+                }
+            }
+
+            // FFT -> mag^2
+            fft(fftIn, fftOut);
+            for (int j = 0; j < FFT_SIZE; j++) {
+                fftOut[j] = fftOut[2 * j] * fftOut[2 * j] + fftOut[2 * j + 1] * fftOut[2 * j + 1];
+            }
+            for (int j = 1; j < FFT_SIZE / 2; j++) {
+                fftOut[j] += fftOut[FFT_SIZE - j];
+            }
+
+            // mel spectrogram
+            for (int j = 0; j < N_MEL; j++) {
+                double sum = 0.0;
+                for (int k = 0; k < nFft; k++) {
+                    sum += (fftOut[k] * filters[j * nFft + k]);
+                }
+                if (sum < 1e-10) {
+                    sum = 1e-10;
+                }
+                mel[j * nLen + i] = (float) log10(sum);
+            }
+        }
+
+        // clamping and normalization
+        double mmax = -1e20;
+        for (float value : mel) {
+            if (value > mmax) {
+                mmax = value;
+            }
+        }
+        mmax -= 8.0;
+        for (int i = 0; i < mel.length; i++) {
+            if (mel[i] < mmax) {
+                mel[i] = (float) mmax;
+            }
+            mel[i] = (float) ((mel[i] + 4.0) / 4.0);
+        }
+        return mel;
+    }
+
+    private static void dft(float[] input, float[] output) {
+        int inSize = input.length;
+        for (int k = 0; k < inSize; k++) {
+            float re = 0.0f;
+            float im = 0.0f;
+            for (int n = 0; n < inSize; n++) {
+                float angle = (float) (2 * Math.PI * k * n / inSize);
+                re += input[n] * cos(angle);
+                im -= input[n] * sin(angle);
+            }
+            output[k * 2 + 0] = re;
+            output[k * 2 + 1] = im;
+        }
+    }
+
+    private static void fft(float[] input, float[] output) {
+        int inSize = input.length;
+        if (inSize == 1) {
+            output[0] = input[0];
+            output[1] = 0.0f;
+            return;
+        }
+
+        if (inSize % 2 == 1) {
+            dft(input, output);
+            return;
+        }
+
+        float[] even = new float[inSize / 2];
+        float[] odd = new float[inSize / 2];
+        for (int i = 0; i < inSize; i++) {
+            if (i % 2 == 0) {
+                even[i / 2] = input[i];
+            } else {
+                odd[i / 2] = input[i];
+            }
+        }
+
+        float[] evenFft = new float[inSize];
+        float[] oddFft = new float[inSize];
+        fft(even, evenFft);
+        fft(odd, oddFft);
+        for (int k = 0; k < inSize / 2; k++) {
+            float theta = (float) (2 * Math.PI * k / inSize);
+            float re = (float) cos(theta);
+            float im = (float) -sin(theta);
+            float reOdd = oddFft[2 * k + 0];
+            float imOdd = oddFft[2 * k + 1];
+            output[2 * k + 0] = evenFft[2 * k + 0] + re * reOdd - im * imOdd;
+            output[2 * k + 1] = evenFft[2 * k + 1] + re * imOdd + im * reOdd;
+            output[2 * (k + inSize / 2) + 0] = evenFft[2 * k + 0] - re * reOdd + im * imOdd;
+            output[2 * (k + inSize / 2) + 1] = evenFft[2 * k + 1] - re * imOdd - im * reOdd;
+        }
+    }
+}
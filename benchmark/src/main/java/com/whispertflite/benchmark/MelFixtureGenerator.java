@@ -0,0 +1,206 @@
+package com.whispertflite.benchmark;
+
+import com.whispertflite.utils.WhisperUtil;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+// Writes the fixtures of MelReferenceCheck: the synthetic signals, recorded clips imported
+// from WAV files, and for every <name>.pcm.gz in the directory the <name>.mel.gz of the
+// baseline frontend (BaselineMelSpectrogram). Recorded clips are kept as .pcm.gz, so
+// running it again without arguments reproduces every reference.
+// Usage: MelFixtureGenerator <fixture dir> <filters_vocab file> [clip.wav ...]
+public final class MelFixtureGenerator {
+
+    private static final int SAMPLE_RATE = WhisperUtil.WHISPER_SAMPLE_RATE;
+    private static final int MAX_SAMPLES = SAMPLE_RATE * WhisperUtil.WHISPER_CHUNK_SIZE;
+
+    // Name and length in samples of the synthetic fixtures, see synthesize()
+    private static final Object[][] SYNTHETIC = {
+            {"silence_1s", SAMPLE_RATE},
+            {"tone_440hz_2s", 2 * SAMPLE_RATE},
+            {"chirp_4s", 4 * SAMPLE_RATE},
+            {"noise_2s", 2 * SAMPLE_RATE},
+            {"speechlike_6s", 6 * SAMPLE_RATE},
+            {"clipped_1s", SAMPLE_RATE},
+            {"short_0p3s", SAMPLE_RATE * 3 / 10},
+            {"tone_500hz_30s", 30 * SAMPLE_RATE}
+    };
+
+    private MelFixtureGenerator() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        File fixtureDir = new File(args[0]);
+        BaselineMelSpectrogram baseline = new BaselineMelSpectrogram(args[1]);
+        fixtureDir.mkdirs();
+
+        for (Object[] fixture : SYNTHETIC) {
+            String name = (String) fixture[0];
+            writeGzip(new File(fixtureDir, name + ".pcm.gz"), toPcm(synthesize(name, (Integer) fixture[1])));
+        }
+        for (int i = 2; i < args.length; i++) {
+            File wav = new File(args[i]);
+            String name = wav.getName().replaceFirst("\\.[^.]*$", "");
+            short[] samples = readWav(wav);
+            writeGzip(new File(fixtureDir, name + ".pcm.gz"), toPcm(samples));
+            System.out.println("Imported " + wav + " as " + name + ", " + samples.length + " samples");
+        }
+
+        File[] fixtures = fixtureDir.listFiles((dir, name) -> name.endsWith(".pcm.gz"));
+        Arrays.sort(fixtures);
+        for (File pcmFile : fixtures) {
+            String name = pcmFile.getName().substring(0, pcmFile.getName().length() - ".pcm.gz".length());
+            // As the baseline engine saw a recording: normalized and zero padded to 30 s
+            float[] samples = BaselineMelSpectrogram.getSamples(readGzip(pcmFile));
+            float[] mel = baseline.getMelSpectrogram(Arrays.copyOf(samples, MAX_SAMPLES), MAX_SAMPLES);
+            ByteBuffer melBytes = ByteBuffer.allocate(mel.length * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            for (float value : mel) {
+                melBytes.putFloat(value);
+            }
+            writeGzip(new File(fixtureDir, name + ".mel.gz"), melBytes.array());
+            System.out.println("Wrote reference of " + name);
+        }
+    }
+
+    // The synthetic signals: silence, tones, a chirp, noise, a voiced speech-like harmonic
+    // glide, a saturated sine and a short decaying burst
+    static short[] synthesize(String name, int length) {
+        short[] samples = new short[length];
+        Random random = new Random(name.hashCode());
+        double phase = 0;
+        for (int i = 0; i < length; i++) {
+            double t = (double) i / SAMPLE_RATE;
+            double value = 0;
+            switch (name) {
+                case "silence_1s":
+                    break;
+                case "tone_500hz_30s":
+                    value = 6000 * Math.sin(2 * Math.PI * i / 32.0) + 3000 * Math.sin(2 * Math.PI * i / 16.0);
+                    break;
+                case "tone_440hz_2s":
+                    value = 12000 * Math.sin(2 * Math.PI * 440 * t);
+                    break;
+                case "chirp_4s":
+                    phase += 2 * Math.PI * (100 + 3900 * t / 4.0) / SAMPLE_RATE;
+                    value = 10000 * Math.sin(phase);
+                    break;
+                case "noise_2s":
+                    value = 3000 * random.nextGaussian();
+                    break;
+                case "speechlike_6s": {
+                    phase += 2 * Math.PI * (120 + 40 * Math.sin(2 * Math.PI * t * 0.7)) / SAMPLE_RATE;
+                    double envelope = 0.5 + 0.5 * Math.sin(2 * Math.PI * t * 3.0);
+                    envelope *= envelope;
+                    value = envelope * (8000 * Math.sin(phase) + 4000 * Math.sin(2 * phase)
+                            + 2000 * Math.sin(3 * phase) + 1000 * Math.sin(5 * phase))
+                            + 300 * random.nextGaussian();
+                    break;
+                }
+                case "clipped_1s":
+                    value = 40000 * Math.sin(2 * Math.PI * 300 * t);
+                    break;
+                case "short_0p3s":
+                    value = 9000 * Math.sin(2 * Math.PI * 1000 * t) * Math.exp(-t * 5);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown fixture " + name);
+            }
+            samples[i] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(value)));
+        }
+        return samples;
+    }
+
+    // 16 bit PCM WAV of any rate and channel count as 16 kHz mono, cut at 30 s. Channels are
+    // averaged, other rates resampled linearly.
+    static short[] readWav(File file) throws IOException {
+        ByteBuffer wav = ByteBuffer.wrap(Files.readAllBytes(file.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+        if (wav.getInt(0) != 0x46464952 || wav.getInt(8) != 0x45564157) {  // "RIFF", "WAVE"
+            throw new IOException(file + " is not a RIFF WAVE file");
+        }
+        wav.position(12);
+        int channels = 0;
+        int rate = 0;
+        while (wav.remaining() >= 8) {
+            int id = wav.getInt();
+            int size = wav.getInt();
+            if (id == 0x20746d66) {  // "fmt "
+                int format = wav.getShort(wav.position());
+                channels = wav.getShort(wav.position() + 2);
+                rate = wav.getInt(wav.position() + 4);
+                int bits = wav.getShort(wav.position() + 14);
+                if (format != 1 || bits != 16) {
+                    throw new IOException(file + ": only 16 bit PCM is supported, format " + format + ", " + bits + " bit");
+                }
+            } else if (id == 0x61746164) {  // "data"
+                if (channels <= 0) {
+                    throw new IOException(file + ": data before fmt chunk");
+                }
+                int frames = Math.min(size, wav.remaining()) / (2 * channels);
+                float[] mono = new float[frames];
+                for (int i = 0; i < frames; i++) {
+                    int sum = 0;
+                    for (int c = 0; c < channels; c++) {
+                        sum += wav.getShort();
+                    }
+                    mono[i] = (float) sum / channels;
+                }
+                return resample(mono, rate);
+            }
+            wav.position(wav.position() + size + (size & 1));
+        }
+        throw new IOException(file + " has no data chunk");
+    }
+
+    private static short[] resample(float[] input, int rate) {
+        int length = (int) Math.min(MAX_SAMPLES, (long) input.length * SAMPLE_RATE / rate);
+        short[] output = new short[length];
+        for (int i = 0; i < length; i++) {
+            double position = (double) i * rate / SAMPLE_RATE;
+            int index = (int) position;
+            double fraction = position - index;
+            double next = index + 1 < input.length ? input[index + 1] : input[index];
+            output[i] = (short) Math.round(input[index] + (next - input[index]) * fraction);
+        }
+        return output;
+    }
+
+    // Little-endian, as Recorder stores it on the devices the app runs on
+    private static byte[] toPcm(short[] samples) {
+        ByteBuffer pcm = ByteBuffer.allocate(samples.length * 2).order(ByteOrder.LITTLE_ENDIAN);
+        for (short sample : samples) {
+            pcm.putShort(sample);
+        }
+        return pcm.array();
+    }
+
+    private static void writeGzip(File file, byte[] data) throws IOException {
+        try (OutputStream out = new GZIPOutputStream(new FileOutputStream(file))) {
+            out.write(data);
+        }
+    }
+
+    private static byte[] readGzip(File file) throws IOException {
+        try (InputStream in = new GZIPInputStream(new FileInputStream(file))) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[64 * 1024];
+            int bytesRead;
+            while ((bytesRead = in.read(buffer)) != -1) {
+                out.write(buffer, 0, bytesRead);
+            }
+            return out.toByteArray();
+        }
+    }
+}
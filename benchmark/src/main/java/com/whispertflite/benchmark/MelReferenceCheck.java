@@ -0,0 +1,184 @@
+package com.whispertflite.benchmark;
+
+import com.whispertflite.asr.RecordBuffer;
+import com.whispertflite.utils.WhisperMelStream;
+import com.whispertflite.utils.WhisperUtil;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+
+// Compares the batch and streaming mel frontend with the checked-in reference outputs
+// and records per fixture timings next to the error figures.
+// Usage: MelReferenceCheck <fixture dir> <filters_vocab file> <report json>
+public final class MelReferenceCheck {
+
+    // Normalized log mel units, 1e-3 is about 1 % in band power
+    static final double MAX_ABS_ERROR = 1e-3;
+    static final double MEAN_ABS_ERROR = 5e-5;
+
+    private static final int MAX_SAMPLES = WhisperUtil.WHISPER_SAMPLE_RATE * WhisperUtil.WHISPER_CHUNK_SIZE;
+    private static final int MEL_FRAMES = MAX_SAMPLES / WhisperUtil.WHISPER_HOP_LENGTH;
+    private static final int MEL_SIZE = WhisperUtil.WHISPER_N_MEL * MEL_FRAMES;
+    private static final int READ_SIZE = 480 * 2;  // bytes per AudioRecord read in Recorder
+    private static final int WARMUP_RUNS = 3;
+    private static final int TIMED_RUNS = 7;
+
+    private MelReferenceCheck() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        File fixtureDir = new File(args[0]);
+        File vocabFile = new File(args[1]);
+        File reportFile = new File(args[2]);
+
+        WhisperUtil whisperUtil = new WhisperUtil();
+        if (!whisperUtil.loadFiltersAndVocab(true, vocabFile.getPath())) {
+            throw new IOException("Invalid vocab file " + vocabFile);
+        }
+        WhisperMelStream melStream = whisperUtil.createMelStream();
+        int threads = Runtime.getRuntime().availableProcessors();
+        FloatBuffer melBuffer = ByteBuffer.allocateDirect(MEL_SIZE * Float.BYTES)
+                .order(ByteOrder.nativeOrder())
+                .asFloatBuffer();
+
+        File[] fixtures = fixtureDir.listFiles((dir, name) -> name.endsWith(".pcm.gz"));
+        if (fixtures == null || fixtures.length == 0) {
+            throw new IOException("No fixtures in " + fixtureDir);
+        }
+        Arrays.sort(fixtures);
+
+        StringBuilder report = new StringBuilder("{\n  \"threads\": " + threads + ",\n  \"fixtures\": [");
+        boolean failed = false;
+        System.out.println(String.format(Locale.ROOT, "%-20s %-7s %12s %12s %10s", "fixture", "path", "max abs", "mean abs", "ms"));
+        for (int f = 0; f < fixtures.length; f++) {
+            String name = fixtures[f].getName().substring(0, fixtures[f].getName().length() - ".pcm.gz".length());
+            byte[] pcm = readGzip(fixtures[f]);
+            float[] reference = toFloats(readGzip(new File(fixtureDir, name + ".mel.gz")));
+            if (reference.length != MEL_SIZE) {
+                throw new IOException("Reference for " + name + " has " + reference.length + " values");
+            }
+
+            // Batch path, as WhisperEngineJava falls back to it
+            long batchNanos = median(() -> {
+                RecordBuffer.setOutputBuffer(pcm);
+                float[] samples = RecordBuffer.getSamples();
+                melBuffer.clear();
+                whisperUtil.getMelSpectrogram(samples, Math.min(samples.length, MAX_SAMPLES), MAX_SAMPLES, threads, melBuffer);
+            });
+            double[] batchError = compare(melBuffer, reference, pcm.length / 2);
+
+            // Streaming path, as Recorder feeds it during capture
+            long streamNanos = median(() -> {
+                melStream.reset();
+                for (int offset = 0; offset < pcm.length; offset += READ_SIZE) {
+                    melStream.write(pcm, offset, Math.min(READ_SIZE, pcm.length - offset));
+                }
+                melBuffer.clear();
+                melStream.finish(melBuffer);
+            });
+            double[] streamError = compare(melBuffer, reference, pcm.length / 2);
+
+            failed |= print(name, "batch", batchError, batchNanos);
+            failed |= print(name, "stream", streamError, streamNanos);
+
+            report.append(f == 0 ? "\n" : ",\n");
+            report.append(String.format(Locale.ROOT,
+                    "    {\"name\": \"%s\", \"samples\": %d, "
+                            + "\"batch\": {\"maxAbsError\": %.9g, \"meanAbsError\": %.9g, \"millis\": %.4f}, "
+                            + "\"stream\": {\"maxAbsError\": %.9g, \"meanAbsError\": %.9g, \"millis\": %.4f}}",
+                    name, pcm.length / 2,
+                    batchError[0], batchError[1], batchNanos / 1e6,
+                    streamError[0], streamError[1], streamNanos / 1e6));
+        }
+        report.append(String.format(Locale.ROOT,
+                "\n  ],\n  \"maxAbsErrorBound\": %g,\n  \"meanAbsErrorBound\": %g,\n  \"passed\": %b\n}\n",
+                MAX_ABS_ERROR, MEAN_ABS_ERROR, !failed));
+
+        File reportDir = reportFile.getParentFile();
+        if (reportDir != null) {
+            reportDir.mkdirs();
+        }
+        try (Writer writer = Files.newBufferedWriter(reportFile.toPath(), StandardCharsets.UTF_8)) {
+            writer.write(report.toString());
+        }
+        System.out.println("Report written to " + reportFile);
+
+        if (failed) {
+            System.err.println("Mel spectrogram deviates from the reference beyond max abs "
+                    + MAX_ABS_ERROR + " / mean abs " + MEAN_ABS_ERROR);
+            System.exit(1);
+        }
+    }
+
+    private static boolean print(String name, String path, double[] error, long nanos) {
+        boolean failed = error[0] > MAX_ABS_ERROR || error[1] > MEAN_ABS_ERROR;
+        System.out.println(String.format(Locale.ROOT, "%-20s %-7s %12.3e %12.3e %10.3f%s",
+                name, path, error[0], error[1], nanos / 1e6, failed ? "  FAILED" : ""));
+        return failed;
+    }
+
+    // {max abs error, mean abs error} of the buffer contents against the reference. The max
+    // covers the whole band-major mel, the mean only the frames that hold audio: the padding
+    // frames match exactly and would dilute the error of short fixtures.
+    private static double[] compare(FloatBuffer mel, float[] reference, int samples) {
+        int audioFrames = Math.min(MEL_FRAMES,
+                (samples + WhisperUtil.WHISPER_HOP_LENGTH - 1) / WhisperUtil.WHISPER_HOP_LENGTH);
+        double max = 0.0;
+        double sum = 0.0;
+        for (int i = 0; i < reference.length; i++) {
+            double error = Math.abs(mel.get(i) - reference[i]);
+            if (!(error <= max)) {
+                max = error;  // also propagates NaN
+            }
+            if (i % MEL_FRAMES < audioFrames) {
+                sum += error;
+            }
+        }
+        return new double[]{max, sum / Math.max(1, audioFrames * WhisperUtil.WHISPER_N_MEL)};
+    }
+
+    private static long median(Runnable run) {
+        for (int i = 0; i < WARMUP_RUNS; i++) {
+            run.run();
+        }
+        long[] nanos = new long[TIMED_RUNS];
+        for (int i = 0; i < TIMED_RUNS; i++) {
+            long start = System.nanoTime();
+            run.run();
+            nanos[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(nanos);
+        return nanos[TIMED_RUNS / 2];
+    }
+
+    private static byte[] readGzip(File file) throws IOException {
+        try (InputStream in = new GZIPInputStream(new FileInputStream(file))) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[64 * 1024];
+            int bytesRead;
+            while ((bytesRead = in.read(buffer)) != -1) {
+                out.write(buffer, 0, bytesRead);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    private static float[] toFloats(byte[] bytes) {
+        FloatBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+        float[] values = new float[buffer.remaining()];
+        buffer.get(values);
+        return values;
+    }
+}
@@ -0,0 +1,253 @@
+package com.whispertflite.benchmark;
+
+import android.content.Context;
+
+import com.whispertflite.asr.TranscriptionRequest;
+import com.whispertflite.asr.Whisper;
+import com.whispertflite.asr.WhisperResult;
+import com.whispertflite.engine.ModelRegistry;
+
+import java.io.File;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+// Drives Whisper end to end with the ScriptedWhisperEngine and reports where the time of a
+// request goes besides the model: waiting in the job queue, the engine stages and the
+// delivery of the result to the listener. The results must match the script, so it also
+// checks that no request is lost or reordered.
+// Usage: PipelineLatencyHarness <report json>
+public final class PipelineLatencyHarness {
+
+    // Stage times of the stand-in engine, a large model scaled down so a run takes seconds
+    private static final long MEL_MICROS = 5_000;
+    private static final long ENCODER_MICROS = 40_000;
+    private static final long TOKEN_MICROS = 2_000;
+    private static final String[] SCRIPT = {
+            "The quick brown fox jumps over the lazy dog.",
+            "Hello world.",
+            "Please send the report to the whole team before Friday afternoon.",
+            "Okay."
+    };
+
+    private static final int WARMUP_REQUESTS = 10;
+    private static final int SEQUENTIAL_REQUESTS = 30;
+    private static final int BURST_ROUNDS = 4;
+    // Windows of a continuous dictation, handed over at a fixed capture pace
+    private static final int WINDOWS = 20;
+    private static final long WINDOW_INTERVAL_MICROS = 100_000;
+
+    private static final int SAMPLES = 16000;  // 1 s of audio per request
+    private static final long WAIT_SECONDS = 30;
+
+    // queue: submitted until the processing thread picks the request up, handoff: from there
+    // until the engine starts, callback: engine done until the listener has the result
+    private static final String[] METRICS = {"queue", "handoff", "mel", "encoder", "decoder", "callback", "total"};
+
+    // Listener side of one request, in System.nanoTime()
+    private static final class Timing {
+        long submitted;
+        long processing;
+        long result;
+        String text;
+    }
+
+    private static final class Listener implements Whisper.WhisperListener {
+        final Timing timing;
+
+        Listener(Timing timing) {
+            this.timing = timing;
+        }
+
+        @Override
+        public void onUpdateReceived(String message) {
+            if (Whisper.MSG_PROCESSING.equals(message)) {
+                timing.processing = System.nanoTime();
+            }
+        }
+
+        @Override
+        public void onResultReceived(WhisperResult result) {
+            timing.result = System.nanoTime();
+            timing.text = result.getResult();
+        }
+    }
+
+    private PipelineLatencyHarness() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        File reportFile = new File(args[0]);
+
+        ScriptedWhisperEngine engine = new ScriptedWhisperEngine(MEL_MICROS, ENCODER_MICROS, TOKEN_MICROS, SCRIPT);
+        ModelRegistry.setEngineFactory(context -> engine);
+        Whisper whisper = new Whisper(new Context());
+        if (!whisper.loadModel("scripted.tflite", "scripted.bin", true).get(WAIT_SECONDS, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("Stand-in engine did not load");
+        }
+        whisper.setAction(Whisper.ACTION_TRANSCRIBE);
+        whisper.setLanguage(-1);
+        byte[] pcm = new byte[SAMPLES * 2];
+
+        runSequential(whisper, engine, pcm, WARMUP_REQUESTS);
+
+        StringBuilder report = new StringBuilder(String.format(Locale.ROOT,
+                "{\n  \"engine\": {\"melMicros\": %d, \"encoderMicros\": %d, \"tokenMicros\": %d},\n  \"scenarios\": [",
+                MEL_MICROS, ENCODER_MICROS, TOKEN_MICROS));
+        System.out.println(String.format(Locale.ROOT, "%-12s %-9s %10s %10s %10s", "scenario", "metric", "p50 ms", "p95 ms", "max ms"));
+        boolean failed = false;
+
+        // One request at a time, the queue is always empty
+        List<Timing> timings = runSequential(whisper, engine, pcm, SEQUENTIAL_REQUESTS);
+        failed |= report(report, "sequential", timings, engine.getTraces(), true);
+
+        // Full queue, each request waits for the ones before it
+        timings = new ArrayList<>();
+        engine.reset();
+        for (int round = 0; round < BURST_ROUNDS; round++) {
+            List<Future<WhisperResult>> futures = new ArrayList<>();
+            for (int i = 0; i < Whisper.MAX_QUEUED_JOBS; i++) {
+                Timing timing = new Timing();
+                timings.add(timing);
+                timing.submitted = System.nanoTime();
+                futures.add(whisper.submit(new TranscriptionRequest(pcm, pcm.length, Whisper.ACTION_TRANSCRIBE, -1, 0),
+                        new Listener(timing)));
+            }
+            for (Future<WhisperResult> future : futures) {
+                future.get(WAIT_SECONDS, TimeUnit.SECONDS);
+            }
+        }
+        failed |= report(report, "burst", timings, engine.getTraces(), false);
+
+        // Windows as the Recorder hands them over while it keeps recording
+        List<Timing> windowTimings = Collections.synchronizedList(new ArrayList<>());
+        engine.reset();
+        CountDownLatch latch = new CountDownLatch(WINDOWS);
+        whisper.setListener(new Whisper.WhisperListener() {
+            int next = 0;  // window being transcribed, they run in order
+
+            @Override
+            public void onUpdateReceived(String message) {
+                if (Whisper.MSG_PROCESSING.equals(message)) {
+                    windowTimings.get(next).processing = System.nanoTime();
+                }
+            }
+
+            @Override
+            public void onResultReceived(WhisperResult result) {
+                Timing timing = windowTimings.get(next++);
+                timing.result = System.nanoTime();
+                timing.text = result.getResult();
+                latch.countDown();
+            }
+        });
+        long start = System.nanoTime();
+        for (int i = 0; i < WINDOWS; i++) {
+            waitUntil(start + i * WINDOW_INTERVAL_MICROS * 1000);
+            Timing timing = new Timing();
+            windowTimings.add(timing);
+            timing.submitted = System.nanoTime();
+            whisper.addChunk(pcm, pcm.length, 0, i == WINDOWS - 1);
+        }
+        if (!latch.await(WAIT_SECONDS, TimeUnit.SECONDS)) {
+            System.err.println("Missing results of continuous windows");
+            failed = true;
+        }
+        failed |= report(report, "continuous", new ArrayList<>(windowTimings), engine.getTraces(), false);
+
+        whisper.unloadModel();
+        report.append(String.format(Locale.ROOT, "\n  ],\n  \"passed\": %b\n}\n", !failed));
+
+        File reportDir = reportFile.getParentFile();
+        if (reportDir != null) {
+            reportDir.mkdirs();
+        }
+        try (Writer writer = Files.newBufferedWriter(reportFile.toPath(), StandardCharsets.UTF_8)) {
+            writer.write(report.toString());
+        }
+        System.out.println("Report written to " + reportFile);
+
+        if (failed) {
+            System.err.println("Results do not match the script");
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+
+    private static List<Timing> runSequential(Whisper whisper, ScriptedWhisperEngine engine, byte[] pcm, int count) throws Exception {
+        engine.reset();
+        List<Timing> timings = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Timing timing = new Timing();
+            timings.add(timing);
+            timing.submitted = System.nanoTime();
+            whisper.submit(new TranscriptionRequest(pcm, pcm.length, Whisper.ACTION_TRANSCRIBE, -1, 0),
+                    new Listener(timing)).get(WAIT_SECONDS, TimeUnit.SECONDS);
+        }
+        return timings;
+    }
+
+    // Prints and appends the percentiles of the scenario, returns true if a result is
+    // missing or differs from the script
+    private static boolean report(StringBuilder report, String scenario, List<Timing> timings,
+                                  List<ScriptedWhisperEngine.Trace> traces, boolean first) {
+        boolean failed = traces.size() != timings.size();
+        int count = Math.min(traces.size(), timings.size());
+        double[][] values = new double[METRICS.length][count];
+        for (int i = 0; i < count; i++) {
+            Timing timing = timings.get(i);
+            ScriptedWhisperEngine.Trace trace = traces.get(i);
+            String expected = " " + SCRIPT[i % SCRIPT.length];
+            if (!expected.equals(timing.text)) {
+                System.err.println(scenario + " request " + i + ": expected \"" + expected + "\", got \"" + timing.text + "\"");
+                failed = true;
+            }
+            values[0][i] = (timing.processing - timing.submitted) / 1e6;
+            values[1][i] = (trace.start - timing.processing) / 1e6;
+            values[2][i] = (trace.melDone - trace.start) / 1e6;
+            values[3][i] = (trace.encoderDone - trace.melDone) / 1e6;
+            values[4][i] = (trace.decoderDone - trace.encoderDone) / 1e6;
+            values[5][i] = (timing.result - trace.decoderDone) / 1e6;
+            values[6][i] = (timing.result - timing.submitted) / 1e6;
+        }
+
+        report.append(first ? "\n" : ",\n");
+        report.append(String.format(Locale.ROOT, "    {\"name\": \"%s\", \"requests\": %d", scenario, count));
+        for (int m = 0; m < METRICS.length; m++) {
+            double[] sorted = values[m];
+            Arrays.sort(sorted);
+            double p50 = percentile(sorted, 0.50);
+            double p95 = percentile(sorted, 0.95);
+            double max = count > 0 ? sorted[count - 1] : 0.0;
+            System.out.println(String.format(Locale.ROOT, "%-12s %-9s %10.3f %10.3f %10.3f", scenario, METRICS[m], p50, p95, max));
+            report.append(String.format(Locale.ROOT, ", \"%s\": {\"p50\": %.4f, \"p95\": %.4f, \"max\": %.4f}",
+                    METRICS[m], p50, p95, max));
+        }
+        report.append("}");
+        return failed;
+    }
+
+    // Nearest rank of the sorted values
+    private static double percentile(double[] sorted, double fraction) {
+        if (sorted.length == 0) {
+            return 0.0;
+        }
+        int rank = (int) Math.ceil(fraction * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length - 1, rank - 1))];
+    }
+
+    private static void waitUntil(long deadline) throws InterruptedException {
+        long remaining = deadline - System.nanoTime();
+        if (remaining > 0) {
+            TimeUnit.NANOSECONDS.sleep(remaining);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.whispertflite.benchmark;
+
+import com.whispertflite.asr.TranscriptionRequest;
+import com.whispertflite.asr.WhisperResult;
+import com.whispertflite.engine.WhisperEngine;
+import com.whispertflite.utils.CancellationToken;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+// Deterministic stand-in for WhisperEngineJava: the mel, encoder and decoder stages take a
+// fixed time and the n-th request is answered with the n-th text of the script, one token
+// per word. Only the conversion of the request's audio is real work, so a run measures the
+// orchestration around the engine instead of the model. Cancellation is checked between
+// stages and tokens, like the real engine does between frames and ops.
+public final class ScriptedWhisperEngine implements WhisperEngine {
+
+    // Timestamps of one processRequest() call in System.nanoTime()
+    public static final class Trace {
+        public final int sampleCount;
+        public long start;
+        public long melDone;
+        public long encoderDone;
+        public long decoderDone;
+
+        Trace(int sampleCount) {
+            this.sampleCount = sampleCount;
+        }
+    }
+
+    private static final int MAX_SAMPLES = 16000 * 30;
+
+    private final long melNanos;
+    private final long encoderNanos;
+    private final long tokenNanos;
+    private final String[] script;
+    private final float[] samples = new float[MAX_SAMPLES];
+    private final List<Trace> traces = Collections.synchronizedList(new ArrayList<>());
+    private boolean initialized = false;
+    private int requestCount = 0;
+
+    public ScriptedWhisperEngine(long melMicros, long encoderMicros, long tokenMicros, String... script) {
+        this.melNanos = melMicros * 1000;
+        this.encoderNanos = encoderMicros * 1000;
+        this.tokenNanos = tokenMicros * 1000;
+        this.script = script;
+    }
+
+    @Override
+    public boolean isInitialized() {
+        return initialized;
+    }
+
+    @Override
+    public void initialize(String modelPath, String vocabPath, boolean multilingual) {
+        initialized = true;
+    }
+
+    @Override
+    public void deinitialize() {
+        initialized = false;
+    }
+
+    @Override
+    public WhisperResult processRequest(TranscriptionRequest request, CancellationToken token) {
+        Trace trace = new Trace(request.getSampleCount());
+        trace.start = System.nanoTime();
+
+        request.getSamples(samples);
+        waitUntil(trace.start + melNanos);
+        trace.melDone = System.nanoTime();
+        token.throwIfCancelled();
+
+        waitUntil(trace.melDone + encoderNanos);
+        trace.encoderDone = System.nanoTime();
+        token.throwIfCancelled();
+
+        String text = script[requestCount++ % script.length];
+        StringBuilder result = new StringBuilder();
+        for (String word : text.split(" ")) {
+            waitUntil(System.nanoTime() + tokenNanos);
+            token.throwIfCancelled();
+            result.append(' ').append(word);
+        }
+        trace.decoderDone = System.nanoTime();
+        traces.add(trace);
+        return new WhisperResult(result.toString(), "en", request.getAction());
+    }
+
+    // Traces of the finished requests in the order they ran
+    public List<Trace> getTraces() {
+        synchronized (traces) {
+            return new ArrayList<>(traces);
+        }
+    }
+
+    public void reset() {
+        traces.clear();
+        requestCount = 0;
+    }
+
+    // Parks for most of the time and spins the rest, sleeping alone overshoots by up to a
+    // scheduler tick
+    private static void waitUntil(long deadline) {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            if (remaining > 200_000) {
+                LockSupport.parkNanos(remaining - 100_000);
+            } else {
+                Thread.onSpinWait();
+            }
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.whispertflite.benchmark;
+
+import com.whispertflite.utils.TranscriptStitcher;
+
+import java.util.Locale;
+
+// Stitches the texts of overlapping dictation windows and compares the delivered text with
+// the expected one, fails if any case differs.
+// Usage: TranscriptStitcherCheck
+public final class TranscriptStitcherCheck {
+
+    // {name, previous windows..., new window, expected new text}, every window after the
+    // first one repeats the end of the one before it
+    private static final String[][] CASES = {
+            {"plain overlap", "The quick brown fox", "brown fox jumps over", " jumps over"},
+            {"no overlap", "The quick brown fox", "Hello world.", "Hello world."},
+            {"fragment at the end", "the quick bro", "the quick brown fox", " brown fox"},
+            {"fragment at the start", "The quick brown fox jumps", "own fox jumps over", " over"},
+            {"overlap only", "The quick brown fox", "brown fox", ""},
+            {"fragment, then more", "the quick bro", "the quick brown fox", "brown fox jumps high", " jumps high"},
+    };
+
+    private TranscriptStitcherCheck() {
+    }
+
+    public static void main(String[] args) {
+        boolean failed = false;
+        for (String[] testCase : CASES) {
+            TranscriptStitcher stitcher = new TranscriptStitcher();
+            String actual = stitcher.append(testCase[1], false);
+            for (int i = 2; i < testCase.length - 1; i++) {
+                actual = stitcher.append(testCase[i], true);
+            }
+            String expected = testCase[testCase.length - 1];
+            boolean passed = expected.equals(actual);
+            failed |= !passed;
+            System.out.println(String.format(Locale.ROOT, "%-24s %-7s \"%s\"%s", testCase[0],
+                    passed ? "ok" : "FAILED", actual, passed ? "" : ", expected \"" + expected + "\""));
+        }
+        if (failed) {
+            System.err.println("Stitched text differs from the expected text");
+            System.exit(1);
+        }
+    }
+}